@@ -6,6 +6,9 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.marriott.finance.soxarchive.auth.DynatraceOAuthClient;
 import com.marriott.finance.soxarchive.config.AppConfig;
 import com.marriott.finance.soxarchive.config.EnvConfigLoader;
+import com.marriott.finance.soxarchive.http.AdaptiveConcurrencyLimiter;
+import com.marriott.finance.soxarchive.http.DynatraceTransport;
+import com.marriott.finance.soxarchive.http.RetryPolicy;
 import com.marriott.finance.soxarchive.model.Integration;
 import com.marriott.finance.soxarchive.model.Integrations;
 import com.marriott.finance.soxarchive.s3.S3CheckpointStore;
@@ -26,15 +29,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public final class App {
 
     private static final Logger log = LoggerFactory.getLogger(App.class);
-    private static final int MAX_PARALLEL_EXECUTIONS = 4;
 
     public static void main(String[] args) {
         log.info("Starting Dynatrace Bizevents Exporter");
 
         try {
             AppConfig config = EnvConfigLoader.load();
+            DynatraceTransport transport = new DynatraceTransport(config);
             DynatraceOAuthClient oauthClient =
                     new DynatraceOAuthClient(
+                            transport,
                             config.oauthTokenUrl(),
                             config.oauthClientId(),
                             config.oauthClientSecret(),
@@ -69,34 +73,78 @@ public final class App {
 				log.info("Found {} integrations to process", integrations.size());
 			}
 
-            int available = Runtime.getRuntime().availableProcessors();
-            int poolSize = Math.max(1, Math.min(Math.min(MAX_PARALLEL_EXECUTIONS, integrations.size()), available));
-            log.info("Launching {} integration worker(s) (available CPUs={}, configured max={})", poolSize, available, MAX_PARALLEL_EXECUTIONS);
+            // workers mostly wait on Grail, so they are not bounded by the CPU count;
+            // the query limiter decides how many queries actually run
+            int poolSize = Math.max(1, Math.min(config.maxParallelExecutions(), integrations.size()));
+            log.info("Launching {} integration worker(s) (configured max={})", poolSize, config.maxParallelExecutions());
 
             ExecutorService executor = Executors.newFixedThreadPool(poolSize);
             List<Future<?>> futures = new ArrayList<>(integrations.size());
             AtomicBoolean hadFailure = new AtomicBoolean(false);
 
             S3Uploader s3Uploader = new S3Uploader(config);
+            ExecutorService compressors = ParallelDeflateOutputStream.newPool(config.compressionThreads());
             S3CheckpointStore s3CheckpointStore = new S3CheckpointStore(config);
 
-            for (Integration integration : integrations) {              
-                BizeventsClient bizeventsClient = new BizeventsClient(config, oauthClient);
-                futures.add(
-                        executor.submit(() -> {
-                            try {
-                                ProcessIntegration.processIntegration(bizeventsClient, s3CheckpointStore, s3Uploader, integration, config);
-                            } catch (Exception e) {
-                                hadFailure.set(true);
-                                log.error("[{}] Integration task failed", integration.getId(), e);
-                            }
-                        })
-                );
+            PollingStrategy pollingStrategy = new PollingStrategy(config.requestTimeoutMillis());
+            AdaptiveConcurrencyLimiter queryLimiter =
+                    new AdaptiveConcurrencyLimiter(config.queryConcurrencyInitial(), config.queryConcurrencyMax());
+            RetryPolicy retryPolicy =
+                    new RetryPolicy(config.retryMaxAttempts(), config.retryBaseMillis(), config.retryMaxBackoffMillis());
+            MemoryBudget memoryBudget = MemoryBudget.ofHeap(config.memoryBudgetPercent());
+
+            if (config.batchedFetch()) {
+                List<List<Integration>> groups = ProcessIntegrationGroup.partition(integrations, config.batchGroupSize(), config);
+                log.info("Batched fetch: {} integration(s) in {} group(s)", integrations.size(), groups.size());
+
+                for (List<Integration> group : groups) {
+                    BizeventsClient bizeventsClient = new BizeventsClient(config, transport, oauthClient, pollingStrategy, queryLimiter, retryPolicy, memoryBudget);
+                    futures.add(
+                            executor.submit(() -> {
+                                try {
+                                    ProcessIntegrationGroup.processGroup(bizeventsClient, s3CheckpointStore, s3Uploader, compressors, group, config);
+                                } catch (Exception e) {
+                                    hadFailure.set(true);
+                                    log.error("[{}] Integration group task failed", group, e);
+                                }
+                            })
+                    );
+                }
+            } else {
+                BacklogPlan plan = null;
+                if (config.backlogPlanner()) {
+                    try {
+                        plan = BacklogPlanner.plan(
+                                new BizeventsClient(config, transport, oauthClient, pollingStrategy, queryLimiter, retryPolicy, memoryBudget),
+                                s3CheckpointStore,
+                                integrations);
+                    } catch (Exception e) {
+                        log.warn("Backlog planning failed; falling back to per-window counts", e);
+                    }
+                }
+                BacklogPlan backlogPlan = plan;
+
+                for (Integration integration : integrations) {              
+                    BizeventsClient bizeventsClient = new BizeventsClient(config, transport, oauthClient, pollingStrategy, queryLimiter, retryPolicy, memoryBudget);
+                    futures.add(
+                            executor.submit(() -> {
+                                try {
+                                    ProcessIntegration.processIntegration(bizeventsClient, s3CheckpointStore, s3Uploader, compressors, integration, config, backlogPlan);
+                                } catch (Exception e) {
+                                    hadFailure.set(true);
+                                    log.error("[{}] Integration task failed", integration.getId(), e);
+                                }
+                            })
+                    );
+                }
             }
 
             executor.shutdown();
 
             waitForTasksToFinish(config, executor);
+            if (compressors != null) {
+                compressors.shutdown();
+            }
 
             // check futures for exceptions that might have been thrown
             for (Future<?> future : futures) {
@@ -108,6 +156,11 @@ public final class App {
                 }
             }
 
+            transport.logStatistics();
+            queryLimiter.logStatistics();
+            retryPolicy.logStatistics();
+            memoryBudget.logStatistics();
+
             // give extra time for logs upload
             try {
                 log.info("Waiting {} seconds to allow logs to be uploaded to Dynatrace", config.getTimeWaitAfterUploadSecs());
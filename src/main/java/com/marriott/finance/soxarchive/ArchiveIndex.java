@@ -0,0 +1,120 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Block index of a seekable archive part, uploaded next to it as {@code <object>.index.json}.
+ *
+ * Every block is compressed on its own: a gzip member, a zstd frame or a ZIP
+ * entry. A reader picks the blocks whose timestamp or record range it needs
+ * and fetches {@code offset .. offset + length - 1} with a ranged GET; for ZIP
+ * the range starts at the entry's local header. Records are archived in
+ * timestamp order, so a block's first and last timestamps bound it.
+ */
+public record ArchiveIndex(
+        ArchiveFormat format,
+        long records,
+        List<Block> blocks
+) {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * @param firstRecord ordinal of the block's first record within the part, from 0
+     * @param entryName name of the ZIP entry holding the block; null for the other formats
+     */
+    public record Block(
+            int block,
+            long offset,
+            long length,
+            long firstRecord,
+            long records,
+            long uncompressedBytes,
+            String firstTimestamp,
+            String lastTimestamp,
+            String entryName
+    ) {
+    }
+
+    public byte[] toJson() {
+        try {
+            return MAPPER.writeValueAsBytes(this);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialise archive index", e);
+        }
+    }
+
+    /**
+     * Collects blocks as they are written, so the index needs no second pass over the archive.
+     */
+    static final class Builder {
+
+        private final ArchiveFormat format;
+        private final List<Block> blocks = new ArrayList<>();
+        private final StringBuilder lastTimestamp = new StringBuilder();
+
+        private long records;
+        private long blockOffset;
+        private long blockFirstRecord;
+        private long blockUncompressed;
+        private String blockFirstTimestamp;
+        private String blockEntry;
+
+        Builder(ArchiveFormat format) {
+            this.format = format;
+        }
+
+        void startBlock(long offset, String entryName) {
+            blockOffset = offset;
+            blockFirstRecord = records;
+            blockUncompressed = 0;
+            blockFirstTimestamp = null;
+            blockEntry = entryName;
+        }
+
+        void record(int length, CharSequence timestamp) {
+            if (records == blockFirstRecord) {
+                blockFirstTimestamp = timestamp.toString();
+            }
+            lastTimestamp.setLength(0);
+            lastTimestamp.append(timestamp);
+            records++;
+            blockUncompressed += length;
+        }
+
+        int blockCount() {
+            return blocks.size();
+        }
+
+        long blockUncompressedBytes() {
+            return blockUncompressed;
+        }
+
+        void endBlock(long endOffset) {
+            long blockRecords = records - blockFirstRecord;
+            if (blockRecords == 0) {
+                return;
+            }
+            blocks.add(new Block(
+                    blocks.size(),
+                    blockOffset,
+                    endOffset - blockOffset,
+                    blockFirstRecord,
+                    blockRecords,
+                    blockUncompressed,
+                    blockFirstTimestamp,
+                    lastTimestamp.toString(),
+                    blockEntry
+            ));
+        }
+
+        ArchiveIndex build() {
+            return new ArchiveIndex(format, records, List.copyOf(blocks));
+        }
+    }
+}
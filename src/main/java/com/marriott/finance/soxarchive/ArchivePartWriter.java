@@ -0,0 +1,483 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.marriott.finance.soxarchive.config.AppConfig;
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.RawRecord;
+import com.marriott.finance.soxarchive.model.RecordHandler;
+import com.marriott.finance.soxarchive.s3.MultipartUploadStream;
+import com.marriott.finance.soxarchive.s3.S3Uploader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the events of one window into archive parts, rolling over to a new part
+ * once the current one reaches {@code MAX_PART_BYTES} and handing each finished
+ * part to a {@link PartSink}: uploaded on a background thread by default, or
+ * queued for the upload stage of an {@link ArchivePipeline}. Either way a part
+ * that rolls over in the middle of a response is not uploaded while the
+ * response is being read; {@link #finish} waits for every upload.
+ *
+ * The part size is the number of compressed bytes the deflater has emitted so
+ * far, counted on the way to the file. The deflater is never flushed per
+ * event, so the count trails the final size by at most its internal buffer.
+ * With PART_SIZE_ESTIMATE_PERCENT set, the size is estimated from the
+ * uncompressed bytes instead.
+ *
+ * Parts are written by an {@link ArchiveWriter} in the integration's
+ * ARCHIVE_FORMAT and COMPRESSION_LEVEL; with COMPRESSION_THREADS above one
+ * they are compressed on several cores. With SEEKABLE_BLOCK_MB they consist
+ * of independently compressed blocks, and an {@link ArchiveIndex} is uploaded
+ * after each part. Every part is followed by its {@link PartManifest}, which
+ * is uploaded last and so also marks the part as complete.
+ *
+ * With DEDUPLICATE, an event that arrives a second time within the window is
+ * dropped by a {@link Deduplicator} before it is written.
+ *
+ * With STREAMING_UPLOAD, parts go straight into S3 multipart uploads instead of
+ * temp files; closing a part completes its object, and an abandoned part is aborted.
+ */
+public final class ArchivePartWriter implements RecordHandler, AutoCloseable {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(ArchivePartWriter.class);
+
+    private static final long MAX_PART_BYTES = 1L * 1024 * 1024 * 1024; // 1GB
+    private static final int FILE_BUFFER_BYTES = 256 * 1024;
+    private static final String INDEX_SUFFIX = ".index.json";
+    private static final String MANIFEST_SUFFIX = ".manifest.json";
+
+    private final PartSink partSink;
+    private final BackgroundUploader uploader;
+    private final S3Uploader streamTo;
+    private final ExecutorService compressors;
+    private final Integration integration;
+    private final Instant windowStart;
+    private final String query;
+    private final long maxPartBytes;
+    private final File tempDir;
+    private final int estimatePercent;
+    private final int compressionThreads;
+    private final ArchiveFormat format;
+    private final int compressionLevel;
+    private final long seekableBlockBytes;
+    private final Deduplicator deduplicator;
+
+    private File currentFile;
+    private MultipartUploadStream currentUpload;
+    private CountingOutputStream compressedBytes;
+    private ArchiveWriter archive;
+    private long uncompressedBytes;
+    private int partIndex;
+    private boolean wroteData;
+    private long recordsWritten;
+
+    /**
+     * @param compressors pool deflating blocks when COMPRESSION_THREADS is above one, else null
+     * @param query DQL the window is fetched with, recorded in each part's manifest
+     */
+    public ArchivePartWriter(
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            Integration integration,
+            Instant windowStart,
+            String query,
+            AppConfig config
+    ) {
+        this(config.streamingUpload() ? null : new BackgroundUploader(s3Uploader, integration, config.uploadQueueDepth()),
+                config.streamingUpload() ? s3Uploader : null, compressors, integration, windowStart, query, config,
+                MAX_PART_BYTES);
+    }
+
+    public ArchivePartWriter(
+            PartSink partSink,
+            ExecutorService compressors,
+            Integration integration,
+            Instant windowStart,
+            String query,
+            AppConfig config
+    ) {
+        this(partSink, null, compressors, integration, windowStart, query, config, MAX_PART_BYTES);
+    }
+
+    ArchivePartWriter(
+            PartSink partSink,
+            ExecutorService compressors,
+            Integration integration,
+            Instant windowStart,
+            String query,
+            AppConfig config,
+            long maxPartBytes
+    ) {
+        this(partSink, null, compressors, integration, windowStart, query, config, maxPartBytes);
+    }
+
+    private ArchivePartWriter(
+            PartSink partSink,
+            S3Uploader streamTo,
+            ExecutorService compressors,
+            Integration integration,
+            Instant windowStart,
+            String query,
+            AppConfig config,
+            long maxPartBytes
+    ) {
+        this.partSink = partSink;
+        this.uploader = partSink instanceof BackgroundUploader background ? background : null;
+        this.streamTo = streamTo;
+        this.compressors = compressors;
+        this.integration = integration;
+        this.windowStart = windowStart;
+        this.query = query;
+        this.maxPartBytes = maxPartBytes;
+        this.tempDir = config.getTempLocalDir() == null ? null : new File(config.getTempLocalDir());
+        this.estimatePercent = config.partSizeEstimatePercent();
+        this.compressionThreads = config.compressionThreads();
+        this.format = config.archiveFormat(integration.getIcNumber());
+        this.compressionLevel = config.compressionLevel(integration.getIcNumber());
+        this.seekableBlockBytes = config.seekableBlockMb() * 1024L * 1024L;
+        this.deduplicator = config.deduplicate() ? new Deduplicator() : null;
+    }
+
+    @Override
+    public void onRecord(JsonNode event) throws IOException {
+        byte[] bytes = event.toString().getBytes(StandardCharsets.UTF_8);
+        long fingerprint = Fingerprint.of(event.path("event.id").asText(""), bytes, 0, bytes.length);
+        writeLine(bytes, 0, bytes.length, event.path("timestamp").asText(""), fingerprint);
+    }
+
+    @Override
+    public boolean acceptsRaw() {
+        return true;
+    }
+
+    @Override
+    public void onRawRecord(RawRecord event) throws IOException {
+        long fingerprint = Fingerprint.of(event.eventId(), event.buffer(), 0, event.length());
+        writeLine(event.buffer(), 0, event.length(), event.timestamp(), fingerprint);
+    }
+
+    /**
+     * Writes one serialised event (without its trailing newline).
+     *
+     * @param timestamp the event's timestamp, for the block index of seekable parts
+     * @param fingerprint the event's {@link Fingerprint}, to recognise duplicates
+     */
+    public void writeLine(byte[] bytes, int offset, int length, CharSequence timestamp, long fingerprint)
+            throws IOException {
+
+        if (deduplicator != null && !deduplicator.firstSeen(timestamp, fingerprint)) {
+            return;
+        }
+
+        if (archive == null) {
+            openNextPart();
+        }
+
+        archive.writeLine(bytes, offset, length, timestamp);
+        wroteData = true;
+        recordsWritten++;
+        uncompressedBytes += length + 1;
+
+        // check size and roll if exceeds limit
+        if (partBytes() >= maxPartBytes) {
+            uploadCurrentPart("rolled");
+        }
+    }
+
+    /**
+     * Size of the current part as far as it is known without flushing the deflater.
+     */
+    private long partBytes() {
+        if (estimatePercent > 0) {
+            return uncompressedBytes * estimatePercent / 100;
+        }
+        return compressedBytes.count();
+    }
+
+    /**
+     * Closes and uploads the last part, if it contains data, and waits until every part is uploaded.
+     */
+    public void finish() throws IOException {
+        if (archive != null) {
+            uploadCurrentPart("final");
+        }
+        if (uploader != null) {
+            uploader.awaitUploads();
+        }
+        if (duplicatesDropped() > 0) {
+            log.warn("[{}] Dropped {} duplicate records in window {}", integration.getId(), duplicatesDropped(), windowStart);
+        }
+    }
+
+    public boolean wroteData() {
+        return wroteData;
+    }
+
+    public long recordsWritten() {
+        return recordsWritten;
+    }
+
+    public long duplicatesDropped() {
+        return deduplicator == null ? 0 : deduplicator.duplicates();
+    }
+
+    private void openNextPart() throws IOException {
+        partIndex++;
+        String prefix = "bizevents-" + integration.getId() + "-part" + partIndex + "-";
+
+        if (streamTo != null) {
+            // same naming as the temp files, which end in a random number
+            currentUpload = streamTo.openArchiveStream(
+                    integration,
+                    windowStart,
+                    prefix + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()),
+                    format
+            );
+            compressedBytes = new CountingOutputStream(currentUpload);
+        } else {
+            currentFile = File.createTempFile(prefix, "." + format.extension(), tempDir);
+            compressedBytes = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(currentFile), FILE_BUFFER_BYTES));
+        }
+
+        archive = ArchiveWriter.open(
+                format,
+                compressedBytes,
+                integration.getId() + "_events.jsonl",
+                compressionLevel,
+                compressionThreads,
+                compressors,
+                seekableBlockBytes
+        );
+        uncompressedBytes = 0;
+    }
+
+    private void uploadCurrentPart(String kind) throws IOException {
+        // closing the writer finishes the archive
+        archive.close();
+        ArchiveWriter closed = archive;
+        archive = null;
+        ArchiveIndex index = closed.index();
+        compressedBytes = null;
+
+        if (currentUpload != null) {
+            // closing the archive completed the multipart upload
+            MultipartUploadStream finished = currentUpload;
+            currentUpload = null;
+            log.info("[{}] Streamed {} part {} ({} bytes)", integration.getId(), kind, partIndex, finished.bytesWritten());
+            String name = finished.objectName();
+            if (index != null) {
+                streamTo.uploadSidecar(integration, windowStart, name, format, INDEX_SUFFIX, index.toJson());
+            }
+            streamTo.uploadSidecar(integration, windowStart, name, format, MANIFEST_SUFFIX, manifest(closed, name).toJson());
+            return;
+        }
+
+        File finished = currentFile;
+        currentFile = null;
+        if (finished.length() > 0) {
+            // the sink owns the file from here on
+            partSink.accept(new Part(integration, windowStart, finished, format, index,
+                    manifest(closed, finished.getName()), partIndex, kind));
+        } else {
+            Files.deleteIfExists(finished.toPath());
+        }
+    }
+
+    private PartManifest manifest(ArchiveWriter closed, String objectName) {
+        return new PartManifest(
+                integration.getId(),
+                windowStart.toString(),
+                partIndex,
+                objectName,
+                format,
+                closed.records(),
+                closed.minTimestamp(),
+                closed.maxTimestamp(),
+                closed.uncompressedBytes(),
+                closed.compressedBytes(),
+                closed.sha256(),
+                query
+        );
+    }
+
+    /**
+     * Releases the open stream and temp file if the window was abandoned.
+     */
+    @Override
+    public void close() {
+        if (currentUpload != null) {
+            // before closing the archive, which would complete the upload
+            currentUpload.abort();
+            currentUpload = null;
+        }
+
+        if (archive != null) {
+            try { archive.close(); } catch (Exception ignored) {}
+            archive = null;
+            compressedBytes = null;
+        }
+
+        if (currentFile != null) {
+            try {
+                Files.deleteIfExists(currentFile.toPath());
+            } catch (Exception ignored) {}
+            currentFile = null;
+        }
+
+        if (uploader != null) {
+            uploader.close();
+        }
+    }
+
+    /**
+     * A finished archive part on local disk, with its manifest and, if it is seekable, its block index.
+     */
+    public record Part(
+            Integration integration,
+            Instant windowStart,
+            File file,
+            ArchiveFormat format,
+            ArchiveIndex index,
+            PartManifest manifest,
+            int partIndex,
+            String kind
+    ) {
+
+        void upload(S3Uploader s3Uploader) {
+            long size = file.length();
+            s3Uploader.uploadArchive(integration, file, windowStart, format);
+            // after the archive, so neither points at a missing object
+            if (index != null) {
+                s3Uploader.uploadSidecar(integration, windowStart, file.getName(), format, INDEX_SUFFIX, index.toJson());
+            }
+            s3Uploader.uploadSidecar(integration, windowStart, file.getName(), format, MANIFEST_SUFFIX, manifest.toJson());
+            log.info("[{}] Uploaded {} part {} ({} bytes)", integration.getId(), kind, partIndex, size);
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException e) {
+                log.warn("[{}] Could not delete part file {}", integration.getId(), file, e);
+            }
+        }
+    }
+
+    /**
+     * Uploads parts on a thread of its own, in the order they were finished.
+     * At most {@code maxQueued} parts wait on disk; a further part blocks the
+     * writer until one of them is uploaded.
+     */
+    private static final class BackgroundUploader implements PartSink, AutoCloseable {
+
+        private final S3Uploader s3Uploader;
+        private final Integration integration;
+        private final Semaphore queued;
+        private final ExecutorService thread;
+        private final Queue<Part> pending = new ConcurrentLinkedQueue<>();
+        private final List<Future<?>> uploads = new ArrayList<>();
+
+        BackgroundUploader(S3Uploader s3Uploader, Integration integration, int maxQueued) {
+            this.s3Uploader = s3Uploader;
+            this.integration = integration;
+            this.queued = new Semaphore(Math.max(1, maxQueued));
+            this.thread = Executors.newSingleThreadExecutor(runnable -> {
+                Thread t = new Thread(runnable, "part-upload-" + integration.getId());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        @Override
+        public void accept(Part part) throws IOException {
+            try {
+                queued.acquire();
+            } catch (InterruptedException e) {
+                part.delete();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing part for upload");
+            }
+            pending.add(part);
+            uploads.add(thread.submit(() -> {
+                try {
+                    part.upload(s3Uploader);
+                } finally {
+                    part.delete();
+                    pending.remove(part);
+                    queued.release();
+                }
+                return null;
+            }));
+        }
+
+        /**
+         * Waits for every queued part and rethrows the first upload failure.
+         */
+        void awaitUploads() throws IOException {
+            try {
+                for (Future<?> upload : uploads) {
+                    upload.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for part uploads");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IOException("[" + integration.getId() + "] Part upload failed", e.getCause());
+            } finally {
+                uploads.clear();
+            }
+        }
+
+        /**
+         * Stops uploading and deletes the files of parts that were not uploaded.
+         */
+        @Override
+        public void close() {
+            thread.shutdownNow();
+            try {
+                thread.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Part part;
+            while ((part = pending.poll()) != null) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Receives finished parts and becomes responsible for uploading and deleting them.
+     */
+    @FunctionalInterface
+    public interface PartSink {
+        void accept(Part part) throws IOException;
+    }
+}
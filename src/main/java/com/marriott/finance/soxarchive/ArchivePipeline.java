@@ -0,0 +1,452 @@
+package com.marriott.finance.soxarchive;
+
+import com.marriott.finance.soxarchive.config.AppConfig;
+import com.marriott.finance.soxarchive.model.Checkpoint;
+import com.marriott.finance.soxarchive.model.CheckpointStore;
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.s3.S3Uploader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fetch, compress and upload of one integration as three stages connected by bounded queues.
+ *
+ * The caller's thread is the fetch stage: it fills {@link PageBuffer}s and
+ * passes them on with {@link #accept}. The compress stage writes pages into
+ * the window's {@link ArchivePartWriter}, and finished parts go to the upload
+ * stage, which ships them while the next window is already being fetched.
+ * Checkpoints travel through both queues behind the window's data, so one is
+ * only saved after every part before it was uploaded.
+ *
+ * A full queue blocks the stage feeding it, which bounds memory to
+ * {@code PIPELINE_QUEUE_DEPTH} pages and disk to {@code UPLOAD_QUEUE_DEPTH}
+ * parts. A failure in any stage stops the pipeline and is rethrown to the
+ * fetch stage on its next hand-off.
+ */
+public final class ArchivePipeline implements AutoCloseable {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(ArchivePipeline.class);
+
+    private static final long FAILURE_CHECK_MILLIS = 100;
+
+    private final Integration integration;
+    private final CheckpointStore checkpointStore;
+    private final S3Uploader s3Uploader;
+    private final ArchivePartWriter.PartSink partUploads;
+    private final ExecutorService compressors;
+    private final AppConfig config;
+
+    private final BlockingQueue<Object> compressQueue;
+    private final BlockingQueue<Object> uploadQueue;
+    private final BlockingQueue<PageBuffer> freePages;
+    private final ExecutorService stages;
+    private final List<Future<?>> stageFutures = new ArrayList<>(2);
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    private final Stage fetchStage = new Stage("fetch");
+    private final Stage compressStage = new Stage("compress");
+    private final Stage uploadStage = new Stage("upload");
+
+    // fetch stage only
+    private long windowRecords;
+    private boolean finished;
+
+    // compress stage only
+    private ArchivePartWriter writer;
+    private WindowStart window;
+
+    public ArchivePipeline(
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            CheckpointStore checkpointStore,
+            Integration integration,
+            AppConfig config
+    ) {
+        this(s3Uploader, part -> part.upload(s3Uploader), compressors, checkpointStore, integration, config);
+    }
+
+    /**
+     * @param partUploads ships a finished part on the upload stage
+     */
+    ArchivePipeline(
+            S3Uploader s3Uploader,
+            ArchivePartWriter.PartSink partUploads,
+            ExecutorService compressors,
+            CheckpointStore checkpointStore,
+            Integration integration,
+            AppConfig config
+    ) {
+        this.s3Uploader = s3Uploader;
+        this.partUploads = partUploads;
+        this.compressors = compressors;
+        this.checkpointStore = checkpointStore;
+        this.integration = integration;
+        this.config = config;
+
+        this.compressQueue = new ArrayBlockingQueue<>(Math.max(1, config.pipelineQueueDepth()));
+        this.uploadQueue = new ArrayBlockingQueue<>(Math.max(1, config.uploadQueueDepth()));
+        this.freePages = new ArrayBlockingQueue<>(Math.max(1, config.pipelineQueueDepth()) + 1);
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.stages = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "archive-" + integration.getId() + "-stage-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        stageFutures.add(stages.submit(() -> runStage(compressQueue, compressStage, this::compress)));
+        stageFutures.add(stages.submit(() -> runStage(uploadQueue, uploadStage, this::upload)));
+        fetchStage.start();
+    }
+
+    /**
+     * Starts a window; its pages follow through {@link #accept} until {@link #endWindow}.
+     */
+    public void beginWindow(Instant windowStart, Instant windowEnd, String query) throws Exception {
+        windowRecords = 0;
+        handOff(compressQueue, new WindowStart(windowStart, windowEnd, query), fetchStage);
+    }
+
+    /**
+     * Passes a filled page to the compress stage and returns an empty one for the next page.
+     */
+    public PageBuffer accept(PageBuffer page) throws Exception {
+        if (page.recordCount() == 0) {
+            return page;
+        }
+        windowRecords += page.recordCount();
+        try {
+            enqueue(compressQueue, page, fetchStage);
+        } catch (Exception e) {
+            // never queued, so neither the compress stage nor close() will release it
+            page.reset();
+            throw e;
+        }
+        checkFailure();
+        PageBuffer next = freePages.poll();
+        return next != null ? next : new PageBuffer();
+    }
+
+    /**
+     * Closes the window: its last part is uploaded and, if it had data, the checkpoint moves to its end.
+     *
+     * @return records fetched for the window
+     */
+    public long endWindow() throws Exception {
+        handOff(compressQueue, WindowEnd.INSTANCE, fetchStage);
+        return windowRecords;
+    }
+
+    /**
+     * Moves the checkpoint once everything queued before it has been uploaded.
+     */
+    public void saveCheckpoint(Instant lastProcessed) throws Exception {
+        handOff(compressQueue, new CheckpointAt(lastProcessed, "Backlog plan completed"), fetchStage);
+    }
+
+    /**
+     * Waits until every queued window is uploaded and checkpointed.
+     */
+    public void finish() throws Exception {
+        drain();
+        finished = true;
+        fetchStage.stop();
+        logStatistics();
+    }
+
+    private void drain() throws Exception {
+        handOff(compressQueue, Stop.INSTANCE, fetchStage);
+        for (Future<?> future : stageFutures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void compress(Object message) throws Exception {
+        if (message instanceof WindowStart start) {
+            window = start;
+            // streamed parts upload while they are compressed; only checkpoints reach the upload stage
+            writer = config.streamingUpload()
+                    ? new ArchivePartWriter(s3Uploader, compressors, integration, start.windowStart(), start.query(), config)
+                    : new ArchivePartWriter(this::queuePart, compressors, integration, start.windowStart(), start.query(), config);
+        } else if (message instanceof PageBuffer page) {
+            try {
+                page.drainTo(writer);
+            } catch (Exception e) {
+                page.reset();
+                throw e;
+            }
+            freePages.offer(page);
+        } else if (message instanceof WindowEnd) {
+            try {
+                writer.finish();
+                if (writer.wroteData()) {
+                    handOff(uploadQueue, new CheckpointAt(window.windowEnd(),
+                            "Window " + window.windowStart() + " -> " + window.windowEnd() + " archived"), compressStage);
+                } else {
+                    log.info("[{}] No data written for window {} -> {}", integration.getId(), window.windowStart(), window.windowEnd());
+                }
+            } finally {
+                writer.close();
+                writer = null;
+            }
+        } else {
+            handOff(uploadQueue, message, compressStage);
+        }
+    }
+
+    /**
+     * A window still open at the stop failed to fetch; its last part is dropped and its checkpoint never saved.
+     */
+    private void abandonOpenWindow() {
+        if (writer != null) {
+            log.warn("[{}] Abandoning unfinished window {} -> {}", integration.getId(), window.windowStart(), window.windowEnd());
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private void queuePart(ArchivePartWriter.Part part) throws InterruptedIOException {
+        try {
+            handOff(uploadQueue, part, compressStage);
+        } catch (InterruptedException e) {
+            part.delete();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing part for upload");
+        } catch (Exception e) {
+            part.delete();
+            throw new IllegalStateException("Archive pipeline stopped", e);
+        }
+    }
+
+    private void upload(Object message) throws IOException {
+        if (message instanceof ArchivePartWriter.Part part) {
+            try {
+                partUploads.accept(part);
+            } finally {
+                part.delete();
+            }
+        } else if (message instanceof CheckpointAt checkpoint) {
+            checkpointStore.save(
+                    new Checkpoint(
+                            integration.getId(),
+                            checkpoint.lastProcessed(),
+                            Instant.now()
+                    )
+            );
+            log.info("[{}] {}, checkpoint updated to {}", integration.getId(), checkpoint.reason(), checkpoint.lastProcessed());
+        }
+    }
+
+    /**
+     * Stage loop: takes messages until {@link Stop}, which is passed downstream.
+     */
+    private Void runStage(BlockingQueue<Object> queue, Stage stage, StageStep step) throws Exception {
+        stage.start();
+        try {
+            while (true) {
+                Object message = take(queue, stage);
+                if (message == Stop.INSTANCE) {
+                    if (queue == compressQueue) {
+                        abandonOpenWindow();
+                        handOff(uploadQueue, Stop.INSTANCE, stage);
+                    }
+                    return null;
+                }
+                long busyStart = System.nanoTime();
+                step.run(message);
+                stage.busy(System.nanoTime() - busyStart);
+            }
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+            throw e;
+        } finally {
+            stage.stop();
+        }
+    }
+
+    private void handOff(BlockingQueue<Object> queue, Object message, Stage from) throws Exception {
+        enqueue(queue, message, from);
+        checkFailure();
+    }
+
+    /**
+     * Waits for room in the queue; throws only while the message has not been queued.
+     */
+    private void enqueue(BlockingQueue<Object> queue, Object message, Stage from) throws Exception {
+        long blockedStart = System.nanoTime();
+        try {
+            while (!queue.offer(message, FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } finally {
+            from.blocked(System.nanoTime() - blockedStart);
+        }
+        (queue == compressQueue ? compressStage : uploadStage).sampleQueue(queue.size());
+    }
+
+    private Object take(BlockingQueue<Object> queue, Stage stage) throws Exception {
+        long waitStart = System.nanoTime();
+        try {
+            Object message;
+            while ((message = queue.poll(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkFailure();
+            }
+            return message;
+        } finally {
+            stage.blocked(System.nanoTime() - waitStart);
+        }
+    }
+
+    private void checkFailure() throws Exception {
+        Exception e = failure.get();
+        if (e != null) {
+            throw new IllegalStateException("Archive pipeline of " + integration.getId() + " failed", e);
+        }
+    }
+
+    public void logStatistics() {
+        log.info("[{}] Archive pipeline: {}; {}; {}", integration.getId(), fetchStage, compressStage, uploadStage);
+    }
+
+    /**
+     * Stops the stages and removes part files that were not uploaded. If the
+     * fetch stage gave up early, windows it had already completed are still
+     * uploaded and checkpointed first.
+     */
+    @Override
+    public void close() {
+        if (!finished && failure.get() == null) {
+            try {
+                drain();
+            } catch (Exception e) {
+                log.warn("[{}] Archive pipeline did not drain cleanly", integration.getId(), e);
+            }
+        }
+        failure.compareAndSet(null, new IllegalStateException("Archive pipeline closed"));
+        stages.shutdownNow();
+        try {
+            stages.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Object message : compressQueue) {
+            if (message instanceof PageBuffer page) {
+                // releases its memory reservation
+                page.reset();
+            }
+        }
+        for (Object message : uploadQueue) {
+            if (message instanceof ArchivePartWriter.Part part) {
+                part.delete();
+            }
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageStep {
+        void run(Object message) throws Exception;
+    }
+
+    private record WindowStart(Instant windowStart, Instant windowEnd, String query) {}
+
+    /** Checkpoint to save once everything queued before it is uploaded. */
+    private record CheckpointAt(Instant lastProcessed, String reason) {}
+
+    private enum WindowEnd { INSTANCE }
+
+    private enum Stop { INSTANCE }
+
+    /**
+     * Time a stage spent working versus waiting on its neighbours, and the depth of its input queue.
+     */
+    private static final class Stage {
+
+        private final String name;
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+        private final AtomicLong queueSamples = new AtomicLong();
+        private final AtomicLong queueDepthSum = new AtomicLong();
+        private final AtomicLong peakQueueDepth = new AtomicLong();
+        private volatile long startNanos;
+        private volatile long elapsedNanos = -1;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        void start() {
+            startNanos = System.nanoTime();
+        }
+
+        void stop() {
+            elapsedNanos = System.nanoTime() - startNanos;
+        }
+
+        void busy(long nanos) {
+            busyNanos.addAndGet(nanos);
+        }
+
+        void blocked(long nanos) {
+            blockedNanos.addAndGet(nanos);
+        }
+
+        void sampleQueue(int depth) {
+            queueSamples.incrementAndGet();
+            queueDepthSum.addAndGet(depth);
+            peakQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        /**
+         * Share of the stage's lifetime not spent waiting; the fetch stage has no
+         * busy timer of its own, so it counts everything except hand-off waits.
+         */
+        private double utilisation() {
+            long elapsed = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startNanos;
+            if (elapsed <= 0) {
+                return 0.0;
+            }
+            long busy = busyNanos.get() > 0 ? busyNanos.get() : Math.max(0, elapsed - blockedNanos.get());
+            return Math.min(1.0, (double) busy / elapsed);
+        }
+
+        @Override
+        public String toString() {
+            long samples = queueSamples.get();
+            return String.format(
+                    "%s utilisation=%.2f blockedMs=%d queueAvg=%.1f queuePeak=%d",
+                    name,
+                    utilisation(),
+                    TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()),
+                    samples == 0 ? 0.0 : (double) queueDepthSum.get() / samples,
+                    peakQueueDepth.get()
+            );
+        }
+    }
+}
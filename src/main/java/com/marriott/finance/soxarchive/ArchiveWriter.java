@@ -0,0 +1,329 @@
+package com.marriott.finance.soxarchive;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compresses the JSON lines of one archive part in an {@link ArchiveFormat}.
+ *
+ * ZIP and gzip deflate at the configured level, on several cores when
+ * COMPRESSION_THREADS is above one; zstd uses its own worker threads for
+ * that. A level of -1 leaves the codec's default. Closing the writer
+ * finishes the container and closes the underlying stream.
+ *
+ * With a block size, the part is written as independently compressed blocks
+ * of about that many uncompressed bytes, cut at line boundaries: one gzip
+ * member, zstd frame or ZIP entry each. The result is still an ordinary
+ * file of its format, and the {@link ArchiveIndex} built on the way lets a
+ * reader fetch single blocks. Blocks are compressed one at a time; only
+ * zstd keeps its worker threads.
+ *
+ * Either way the writer counts records and bytes, tracks the earliest and
+ * latest timestamp and hashes the compressed output for the part's
+ * {@link PartManifest}.
+ */
+final class ArchiveWriter implements Closeable {
+
+    private static final int ZSTD_DEFAULT_LEVEL = 3;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final ArchiveFormat format;
+    private final CountingOutputStream out;
+    private final String entryName;
+    private final int level;
+    private final int threads;
+    private final long blockBytes;
+
+    private final ZipOutputStream zip;            // seekable ZIP only
+    private final ArchiveIndex.Builder index;     // seekable only
+    private final MessageDigest digest;
+    private OutputStream compressed;
+
+    private long records;
+    private long uncompressedBytes;
+    private final StringBuilder minTimestamp = new StringBuilder();
+    private final StringBuilder maxTimestamp = new StringBuilder();
+    private String sha256;
+
+    private ArchiveWriter(
+            ArchiveFormat format,
+            CountingOutputStream out,
+            String entryName,
+            int level,
+            int threads,
+            long blockBytes,
+            MessageDigest digest,
+            OutputStream compressed
+    ) throws IOException {
+        this.format = format;
+        this.digest = digest;
+        this.out = out;
+        this.entryName = entryName;
+        this.level = level;
+        this.threads = threads;
+        this.blockBytes = blockBytes;
+        this.compressed = compressed;
+        this.index = blockBytes > 0 ? new ArchiveIndex.Builder(format) : null;
+        if (blockBytes > 0 && format == ArchiveFormat.ZIP) {
+            zip = new ZipOutputStream(out);
+            zip.setLevel(level);
+        } else {
+            zip = null;
+        }
+    }
+
+    /**
+     * @param entryName name of the file inside a ZIP archive; unused by the other formats
+     * @param compressors pool for parallel ZIP and gzip, null to deflate on the writing thread
+     * @param blockBytes uncompressed size of independently compressed blocks, 0 for one stream
+     */
+    static ArchiveWriter open(
+            ArchiveFormat format,
+            OutputStream out,
+            String entryName,
+            int level,
+            int threads,
+            ExecutorService compressors,
+            long blockBytes
+    ) throws IOException {
+
+        MessageDigest digest = sha256Digest();
+        CountingOutputStream counted = new CountingOutputStream(new DigestOutputStream(out, digest));
+        if (blockBytes > 0) {
+            // blocks are opened as records arrive
+            return new ArchiveWriter(format, counted, entryName, level, threads, blockBytes, digest, null);
+        }
+
+        OutputStream compressed = switch (format) {
+            case ZIP -> threads > 1 && compressors != null
+                    ? new ParallelZipOutputStream(counted, entryName, level, compressors, threads)
+                    : buffered(zip(counted, entryName, level));
+            case GZIP -> threads > 1 && compressors != null
+                    ? new ParallelGzipOutputStream(counted, level, compressors, threads)
+                    : buffered(gzip(counted, level));
+            case ZSTD -> buffered(zstd(counted, level, threads));
+        };
+        return new ArchiveWriter(format, counted, entryName, level, threads, 0, digest, compressed);
+    }
+
+    /**
+     * Writes one serialised event followed by a newline.
+     *
+     * @param timestamp the event's timestamp, for the block index
+     */
+    void writeLine(byte[] bytes, int offset, int length, CharSequence timestamp) throws IOException {
+        if (compressed == null) {
+            startBlock();
+        }
+
+        compressed.write(bytes, offset, length);
+        compressed.write('\n');
+        records++;
+        uncompressedBytes += length + 1;
+        trackTimestamp(timestamp);
+
+        if (index != null) {
+            index.record(length + 1, timestamp);
+            if (index.blockUncompressedBytes() >= blockBytes) {
+                endBlock();
+            }
+        }
+    }
+
+    /**
+     * Block index of a seekable part once the writer is closed; null for a single stream.
+     */
+    ArchiveIndex index() {
+        return index != null ? index.build() : null;
+    }
+
+    long records() {
+        return records;
+    }
+
+    long uncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Bytes of compressed output, including the container's headers and trailer once closed.
+     */
+    long compressedBytes() {
+        return out.count();
+    }
+
+    /**
+     * Earliest event timestamp written, or null.
+     */
+    String minTimestamp() {
+        return minTimestamp.isEmpty() ? null : minTimestamp.toString();
+    }
+
+    String maxTimestamp() {
+        return maxTimestamp.isEmpty() ? null : maxTimestamp.toString();
+    }
+
+    /**
+     * Hex SHA-256 of the compressed output; available once the writer is closed.
+     */
+    String sha256() {
+        return sha256;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (sha256 != null) {
+            return;
+        }
+        if (index == null) {
+            compressed.close();
+        } else {
+            if (compressed != null) {
+                endBlock();
+            }
+            if (zip != null) {
+                zip.close(); // central directory
+            } else {
+                out.close();
+            }
+        }
+        sha256 = HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Grail timestamps share one ISO-8601 layout, so equal lengths compare as text;
+     * anything else is compared as instants.
+     */
+    private void trackTimestamp(CharSequence timestamp) {
+        if (timestamp.isEmpty()) {
+            return;
+        }
+        if (minTimestamp.isEmpty() || isBefore(timestamp, minTimestamp)) {
+            minTimestamp.setLength(0);
+            minTimestamp.append(timestamp);
+        }
+        if (maxTimestamp.isEmpty() || isBefore(maxTimestamp, timestamp)) {
+            maxTimestamp.setLength(0);
+            maxTimestamp.append(timestamp);
+        }
+    }
+
+    private static boolean isBefore(CharSequence a, CharSequence b) {
+        if (a.length() != b.length()) {
+            try {
+                return Instant.parse(a).isBefore(Instant.parse(b));
+            } catch (DateTimeParseException e) {
+                // not an instant after all; fall back to text order
+            }
+        }
+        return CharSequence.compare(a, b) < 0;
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void startBlock() throws IOException {
+        long offset = out.count();
+        String blockEntry = null;
+
+        switch (format) {
+            case ZIP -> {
+                blockEntry = blockEntryName(entryName, index.blockCount());
+                zip.putNextEntry(new ZipEntry(blockEntry));
+                compressed = buffered(new KeepOpenOutputStream(zip));
+            }
+            case GZIP -> compressed = buffered(gzip(new KeepOpenOutputStream(out), level));
+            case ZSTD -> compressed = buffered(zstd(new KeepOpenOutputStream(out), level, threads));
+        }
+        index.startBlock(offset, blockEntry);
+    }
+
+    private void endBlock() throws IOException {
+        compressed.close(); // ends the member or frame, or flushes into the ZIP entry
+        compressed = null;
+        if (zip != null) {
+            zip.closeEntry();
+        }
+        index.endBlock(out.count());
+    }
+
+    /**
+     * {@code x_events.jsonl} becomes {@code x_events-00003.jsonl} for block 3.
+     */
+    private static String blockEntryName(String entryName, int block) {
+        int dot = entryName.lastIndexOf('.');
+        String suffix = String.format("-%05d", block);
+        return dot < 0 ? entryName + suffix : entryName.substring(0, dot) + suffix + entryName.substring(dot);
+    }
+
+    /**
+     * Codec streams cross into native code on every write, so lines are batched first.
+     */
+    private static OutputStream buffered(OutputStream codec) {
+        return new BufferedOutputStream(codec, BUFFER_BYTES);
+    }
+
+    private static OutputStream zip(OutputStream out, String entryName, int level) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(level);
+        zip.putNextEntry(new ZipEntry(entryName));
+        return zip;
+    }
+
+    private static OutputStream gzip(OutputStream out, int level) throws IOException {
+        return new GZIPOutputStream(out, BUFFER_BYTES) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    private static OutputStream zstd(OutputStream out, int level, int threads) throws IOException {
+        ZstdOutputStream zstd = new ZstdOutputStream(out, level < 0 ? ZSTD_DEFAULT_LEVEL : level);
+        if (threads > 1) {
+            zstd.setWorkers(threads);
+        }
+        return zstd;
+    }
+
+    /**
+     * Lets a block's codec stream be closed without closing the part it is written into.
+     */
+    private static final class KeepOpenOutputStream extends FilterOutputStream {
+
+        KeepOpenOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.marriott.finance.soxarchive;
+
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.WorkUnit;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-empty windows per integration between its checkpoint and {@link #end()}.
+ * Hours that do not appear in the plan held no records when it was built.
+ */
+public final class BacklogPlan {
+
+    private final Instant end;
+    private final Map<String, List<WorkUnit>> unitsByIntegration;
+
+    BacklogPlan(Instant end, Map<String, List<WorkUnit>> unitsByIntegration) {
+        this.end = end;
+        this.unitsByIntegration = Map.copyOf(unitsByIntegration);
+    }
+
+    public Instant end() {
+        return end;
+    }
+
+    public boolean covers(Integration integration) {
+        return unitsByIntegration.containsKey(integration.getId());
+    }
+
+    /**
+     * Windows to fetch, in time order.
+     */
+    public List<WorkUnit> unitsFor(Integration integration) {
+        return unitsByIntegration.getOrDefault(integration.getId(), List.of());
+    }
+
+    public long expectedRecords() {
+        return unitsByIntegration.values().stream()
+                .flatMap(List::stream)
+                .mapToLong(WorkUnit::expectedCount)
+                .sum();
+    }
+
+    public int unitCount() {
+        return unitsByIntegration.values().stream().mapToInt(List::size).sum();
+    }
+}
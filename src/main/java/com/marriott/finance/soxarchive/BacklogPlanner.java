@@ -0,0 +1,122 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.marriott.finance.soxarchive.model.CheckpointStore;
+import com.marriott.finance.soxarchive.model.DqlResponse;
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.RecordHandler;
+import com.marriott.finance.soxarchive.model.WorkUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link BacklogPlan} from a single hourly histogram query covering
+ * the backlog of every integration, so catch-up runs need no per-window counts.
+ */
+public final class BacklogPlanner {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(BacklogPlanner.class);
+
+    private BacklogPlanner() {
+        // utility class
+    }
+
+    /**
+     * @return the plan, or {@code null} when there is no backlog or the histogram was truncated
+     */
+    public static BacklogPlan plan(
+            BizeventsClient bizeventsClient,
+            CheckpointStore checkpointStore,
+            List<Integration> integrations
+    ) throws Exception {
+        return plan(bizeventsClient::getHourlyHistogram, checkpointStore, integrations);
+    }
+
+    static BacklogPlan plan(
+            HistogramSource histogram,
+            CheckpointStore checkpointStore,
+            List<Integration> integrations
+    ) throws Exception {
+
+        Instant end = ProcessIntegration.processingCutoff();
+
+        Map<String, Instant> starts = new HashMap<>();
+        Map<String, Integration> byPair = new HashMap<>();
+        for (Integration integration : integrations) {
+            starts.put(integration.getId(), ProcessIntegration.initialWindowStart(checkpointStore, integration));
+            byPair.put(pairKey(integration.getSource(), integration.getDestination()), integration);
+        }
+
+        Instant from = starts.values().stream().min(Comparator.naturalOrder()).orElse(end);
+        if (!from.isBefore(end)) {
+            return null;
+        }
+
+        Map<String, List<WorkUnit>> units = new HashMap<>();
+        for (Integration integration : integrations) {
+            units.put(integration.getId(), new ArrayList<>());
+        }
+
+        DqlResponse response = histogram.fetch(integrations, from, end, record -> {
+            Integration integration = byPair.get(pairKey(
+                    record.path("source").asText(""),
+                    record.path("destination").asText("")));
+            JsonNode hour = record.get("hour");
+            long count = record.path("count").asLong();
+            if (integration == null || hour == null || !hour.isTextual() || count == 0) {
+                return;
+            }
+
+            Instant windowStart = Instant.parse(hour.asText());
+            // hours before this integration's checkpoint are already archived
+            if (windowStart.isBefore(starts.get(integration.getId()))) {
+                return;
+            }
+            Instant windowEnd = windowStart.plus(Duration.ofHours(ProcessIntegration.HOURS_PER_WINDOW));
+            units.get(integration.getId()).add(new WorkUnit(windowStart, windowEnd, count));
+        });
+
+        if (response.truncated()) {
+            log.warn("Backlog histogram {} -> {} was truncated; falling back to per-window counts", from, end);
+            return null;
+        }
+
+        units.values().forEach(list -> list.sort(Comparator.comparing(WorkUnit::windowStart)));
+        BacklogPlan plan = new BacklogPlan(end, units);
+
+        long backlogHours = Duration.between(from, end).toHours();
+        log.info(
+                "Backlog plan {} -> {}: {} non-empty window(s), {} expected record(s), {} hour(s) x {} integration(s) scanned in one query",
+                from,
+                end,
+                plan.unitCount(),
+                plan.expectedRecords(),
+                backlogHours,
+                integrations.size()
+        );
+
+        return plan;
+    }
+
+    private static String pairKey(String source, String destination) {
+        return source.toLowerCase() + '\u0000' + destination.toLowerCase();
+    }
+
+    /**
+     * The hourly record counts per integration in {@code [from, to)}, streamed to the handler.
+     */
+    @FunctionalInterface
+    interface HistogramSource {
+        DqlResponse fetch(List<Integration> integrations, Instant from, Instant to, RecordHandler handler) throws Exception;
+    }
+}
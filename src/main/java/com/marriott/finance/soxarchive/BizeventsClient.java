@@ -5,19 +5,38 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.marriott.finance.soxarchive.auth.DynatraceOAuthClient;
 import com.marriott.finance.soxarchive.config.AppConfig;
+import com.marriott.finance.soxarchive.http.AdaptiveConcurrencyLimiter;
+import com.marriott.finance.soxarchive.http.DynatraceApiException;
+import com.marriott.finance.soxarchive.http.DynatraceTransport;
+import com.marriott.finance.soxarchive.http.RetryPolicy;
 import com.marriott.finance.soxarchive.model.BizeventsResponse;
+import com.marriott.finance.soxarchive.model.DqlResponse;
+import com.marriott.finance.soxarchive.model.FieldProjection;
 import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.PageCursor;
+import com.marriott.finance.soxarchive.model.RawRecord;
+import com.marriott.finance.soxarchive.model.RecordHandler;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,100 +50,322 @@ public final class BizeventsClient {
     private static final String POLL_PATH =
             "/platform/storage/query/v1/query:poll";
 
-    private final HttpClient httpClient;
+    private final DynatraceTransport transport;
     private final ObjectMapper objectMapper;
+    private final DqlResponseReader responseReader;
     private final AppConfig config;    
     private final DynatraceOAuthClient oauthClient;
+    private final PollingStrategy pollingStrategy;
+    private final AdaptiveConcurrencyLimiter queryLimiter;
+    private final RetryPolicy retryPolicy;
+    private final MemoryBudget memoryBudget;
     private final String MAX_RESULT_BYTES = "100000000" ;
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
    
-    private final int DQL_POLL_INTERVAL_MS = 1000 ;
-    private final int MAX_RESULT_RECORDS = 100000 ;
+    /** Upper bound for a page: Grail returns at most this many records per query. */
+    public static final int MAX_RESULT_RECORDS = 100000 ;
+    private final long HTTP_TIMEOUT_MARGIN_MS = 30000 ;
+    private final long DEFAULT_RETRY_AFTER_MS = 1000 ;
+    private final long MIN_HEDGE_DELAY_MS = 5000 ;
+    private final long HEDGE_LATENCY_FACTOR = 3 ;
     
     
     
     private static final Logger log = LoggerFactory.getLogger(BizeventsClient.class);
 
 
-    public BizeventsClient(AppConfig config,  DynatraceOAuthClient oauthClient) {
-        this.httpClient = HttpClient.newHttpClient();
+    public BizeventsClient(AppConfig config,  DynatraceTransport transport, DynatraceOAuthClient oauthClient, PollingStrategy pollingStrategy, AdaptiveConcurrencyLimiter queryLimiter, RetryPolicy retryPolicy, MemoryBudget memoryBudget) {
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
+        this.responseReader = new DqlResponseReader(objectMapper);
         this.config = config;        
         this.oauthClient = oauthClient;
+        this.pollingStrategy = pollingStrategy;
+        this.queryLimiter = queryLimiter;
+        this.retryPolicy = retryPolicy;
+        this.memoryBudget = memoryBudget;
     }
     
-    
-    
-    public BizeventsResponse getData( Integration integration, Instant from, Instant to, int pageSize ) throws Exception {      
+    /**
+     * Process-wide budget that pages buffered from this client's queries are reserved against.
+     */
+    public MemoryBudget memoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Streams one page of records to the handler as they are parsed from the response.
+     */
+    public BizeventsResponse getData( Integration integration, Instant from, Instant to, PageCursor after, int pageSize, RecordHandler handler ) throws Exception {      
 		
-    	String dql = buildDataDql(integration, from, to, pageSize);
-		JsonNode resultNode = runDqlWithPolling(dql);
-		return parseDataResult(resultNode);
+		return getData(submitData(integration, from, to, after, pageSize), handler);
+	}
+
+    /**
+     * Starts the data query for a page without waiting for it, so Grail can run it
+     * while the caller is still busy with the previous page.
+     */
+    public PendingQuery submitData( Integration integration, Instant from, Instant to, PageCursor after, int pageSize ) throws Exception {
+
+    	return submitQuery(buildDataDql(integration, from, to, after, pageSize), integration.getId() + "/data");
+    }
+
+    /**
+     * Waits for a page started with {@link #submitData} and streams its records to the handler.
+     */
+    public BizeventsResponse getData( PendingQuery pending, RecordHandler handler ) throws Exception {
+
+		DqlResponse result = awaitQuery(pending, handler);
+		return new BizeventsResponse(result.recordCount(), result.lastCursor(), result.truncated());
 	}
     
+    /**
+     * Streams one page of records for a whole group of integrations; the handler
+     * routes each record by its source/destination.
+     */
+    public BizeventsResponse getBatchData( List<Integration> group, Instant from, Instant to, PageCursor after, int pageSize, RecordHandler handler ) throws Exception {
+
+		String dql = buildBatchDataDql(group, from, to, after, pageSize);
+		DqlResponse result = runDqlWithPolling(dql, batchKey(group) + "/data", handler);
+		return new BizeventsResponse(result.recordCount(), result.lastCursor(), result.truncated());
+	}
+
+    /**
+     * Streams hourly record counts per (source, destination) for a set of integrations.
+     */
+    public DqlResponse getHourlyHistogram( List<Integration> integrations, Instant from, Instant to, RecordHandler handler ) throws Exception {
+
+		String dql = buildHistogramDql(integrations, from, to);
+		return runDqlWithPolling(dql, "histogram", handler);
+	}
+
     public int getCount(Integration integration, Instant from, Instant to ) throws Exception {      
 		
 		String dql = buildCountDql(integration, from, to);
     	
-		JsonNode resultNode = runDqlWithPolling(dql);
-		int count = parseCountResult(resultNode);
+		AtomicInteger count = new AtomicInteger();
+		runDqlWithPolling(dql, integration.getId() + "/count", record -> count.set(record.path("count").asInt()));
 		
-		log.info("Count result for integration " + integration.getId() + " from " + from.toString() + " to " + to.toString() + " is: " + count);
+		log.info("Count result for integration " + integration.getId() + " from " + from.toString() + " to " + to.toString() + " is: " + count.get());
 		
-		return count;
+		return count.get();
     	
     }
 
     /**
-     * Executes a DQL query and polls until completion.
+     * Executes a DQL query and polls until completion, streaming the
+     * result records of the final response to the handler.
+     *
+     * @param latencyKey groups queries with similar run times for {@link PollingStrategy}
      */
-    public JsonNode runDqlWithPolling(String dql
+    public DqlResponse runDqlWithPolling(String dql, String latencyKey, RecordHandler handler
     ) throws Exception {       
         
-        String accessToken = oauthClient.getAccessToken(); 
+        return awaitQuery(submitQuery(dql, latencyKey), handler);
+    }
+
+    /**
+     * Sends query:execute asynchronously once the query limiter admits it;
+     * the response is consumed by {@link #awaitQuery}.
+     */
+    public PendingQuery submitQuery(String dql, String latencyKey) throws Exception {
+
+        AdaptiveConcurrencyLimiter.Permit permit = queryLimiter.acquire();
+        try {
+            String accessToken = oauthClient.getAccessToken(); 
+            long waitMillis = pollingStrategy.initialWaitMillis(latencyKey);
+
+            return PendingQuery.of(dql, latencyKey, accessToken, permit, System.nanoTime(),
+                    executeQueryAsync(dql, accessToken, waitMillis));
+        } catch (Exception e) {
+            permit.release();
+            throw e;
+        }
+    }
 
-        JsonNode start =
-                executeQuery(dql, accessToken);
+    /**
+     * Reads the execute response of a submitted query and polls until completion.
+     *
+     * Failures are retried as {@link RetryPolicy} classifies them, within one
+     * budget per call: a rejected or failed execute is submitted again, a poll
+     * that hits a transient error is repeated with the same request token, an
+     * expired request token re-executes the query, and a 401 replaces the access token. Once records have reached the
+     * handler a retry is only possible if the handler can {@link RecordHandler#reset reset}.
+     */
+    public DqlResponse awaitQuery(PendingQuery pending, RecordHandler handler
+    ) throws Exception {       
+
+        DeliveryCounter delivered = new DeliveryCounter(handler);
+        RetryPolicy.Budget budget = retryPolicy.newBudget();
+        try {
+            while (true) {
+                try {
+                    return completeQuery(pending, delivered, budget);
+                } catch (Exception e) {
+                    RetryPolicy.Failure failure = retryPolicy.classify(e);
+                    if (!delivered.rewind() || !budget.tryRetry(failure)) {
+                        throw e;
+                    }
+                    long wait = retryWaitMillis(failure, e, budget, pending.accessToken());
+                    log.warn("DQL query " + pending.latencyKey() + " failed (" + failure + "), re-executing in "
+                            + wait + " ms: " + e.getMessage());
+                    pending.permit().release();
+                    Thread.sleep(wait);
+                    pending = submitQuery(pending.dql(), pending.latencyKey());
+                }
+            }
+        } finally {
+            pending.permit().release();
+        }
+    }
+
+    private DqlResponse completeQuery(PendingQuery pending, DeliveryCounter handler, RetryPolicy.Budget budget
+    ) throws Exception {
+
+        HttpResponse<InputStream> executed = pending.await();
+        DqlResponse start = readExecuteResponse(executed, handler);
 
         // Immediate success
-        if ("SUCCEEDED".equals(start.path("state").asText())) {
-            return start;
+        if ("SUCCEEDED".equals(start.state())) {
+            return succeeded(pending, start, pending.respondedNanos().get());
         }
 
-        String requestToken =
-                start.path("requestToken").asText(null);
+        String requestToken = start.requestToken();
 
         if (requestToken == null) {
             throw new IllegalStateException(
                     "DQL did not succeed immediately and no requestToken was returned. State="
-                            + start.path("state").asText()
+                            + start.state()
             );
         }
-        JsonNode lastPoll = start;
-        for (int i = 0; i < config.maxPolls()  && "RUNNING".equals(lastPoll.path("state").asText()) ; i++) {
+        DqlResponse lastPoll = start;
+        long lastPollReceived = 0;
+        int backoffAttempt = 0;
+        for (int i = 0; i < config.maxPolls()  && "RUNNING".equals(lastPoll.state()) ; i++) {
         	
-            lastPoll = pollQuery( requestToken, config.requestTimeoutMillis(),  accessToken );     
-            Thread.sleep(DQL_POLL_INTERVAL_MS);
+            long pollStart = System.nanoTime();
+            Received polled = pollWithRetry(pending, requestToken, handler, budget);
+            lastPoll = polled.response();
+            lastPollReceived = polled.receivedNanos();
+
+            // only pace ourselves when the server answered RUNNING without holding the request
+            if ("RUNNING".equals(lastPoll.state())
+                    && pollingStrategy.returnedEarly(millisSince(pollStart))) {
+                Thread.sleep(pollingStrategy.backoffMillis(pending.latencyKey(), backoffAttempt++));
+            }
         }
 
-        if (!"SUCCEEDED".equals(lastPoll.path("state").asText())) {
+        if (!"SUCCEEDED".equals(lastPoll.state())) {
             throw new IllegalStateException(
                     "DQL query did not succeed. Final state="
-                            + lastPoll.path("state").asText()
+                            + lastPoll.state()
             );
         }
 
-        return lastPoll;
+        return succeeded(pending, lastPoll, lastPollReceived);
+    }
+
+    /**
+     * Repeats a poll that failed before delivering any record. An expired token,
+     * or a failure after records were delivered, goes back to {@link #awaitQuery}
+     * to execute the query again.
+     */
+    private Received pollWithRetry(PendingQuery pending, String requestToken, DeliveryCounter handler, RetryPolicy.Budget budget
+    ) throws Exception {
+
+        while (true) {
+            // a long query can outlive the token it was submitted with
+            String accessToken = oauthClient.getAccessToken();
+            try {
+                return pollQuery(requestToken, pollingStrategy.pollWaitMillis(), accessToken, pending.latencyKey(), handler);
+            } catch (Exception e) {
+                RetryPolicy.Failure failure = retryPolicy.classify(e);
+                if (failure == RetryPolicy.Failure.TOKEN_EXPIRED || handler.count() > 0 || !budget.tryRetry(failure)) {
+                    throw e;
+                }
+                long wait = retryWaitMillis(failure, e, budget, accessToken);
+                log.warn("DQL poll for " + pending.latencyKey() + " failed (" + failure + "), polling again in "
+                        + wait + " ms: " + e.getMessage());
+                Thread.sleep(wait);
+            }
+        }
+    }
+
+    private long retryWaitMillis(RetryPolicy.Failure failure, Exception e, RetryPolicy.Budget budget, String accessToken) {
+        switch (failure) {
+            case UNAUTHORIZED:
+                oauthClient.invalidate(accessToken);
+                return 0;
+            case OVERLOADED:
+                long retryAfter = e instanceof DynatraceApiException api ? api.retryAfterMillis() : DEFAULT_RETRY_AFTER_MS;
+                queryLimiter.onOverload(retryAfter);
+                return retryAfter;
+            case TOKEN_EXPIRED:
+                return 0;
+            default:
+                return retryPolicy.backoffMillis(budget.attempts());
+        }
     }
     
+    /**
+     * Feeds the limiter and polling strategy with the time until the final
+     * response arrived; reading it, and whatever the handler did with its
+     * records, is not part of the query's latency.
+     *
+     * @param receivedNanos when the response's headers arrived
+     */
+    private DqlResponse succeeded(PendingQuery pending, DqlResponse response, long receivedNanos) {
+        if (!response.resultPresent()) {
+            throw new IllegalStateException(
+                    "DQL SUCCEEDED but result was missing"
+            );
+        }
+        long latency = Math.max(0, (receivedNanos - pending.submittedNanos()) / 1_000_000L);
+        long expected = pollingStrategy.hasHistory(pending.latencyKey())
+                ? pollingStrategy.expectedLatencyMillis(pending.latencyKey())
+                : -1;
+        queryLimiter.onSuccess(latency, expected);
+        pollingStrategy.recordLatency(pending.latencyKey(), latency);
+        return response;
+    }
+
+    /**
+     * Retry-After as delta-seconds or HTTP date; a default when missing or unparsable.
+     */
+    private long retryAfterMillis(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null) {
+            return DEFAULT_RETRY_AFTER_MS;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000L);
+        } catch (NumberFormatException notSeconds) {
+            try {
+                Instant until = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                return Math.max(0, until.toEpochMilli() - System.currentTimeMillis());
+            } catch (DateTimeParseException notDate) {
+                return DEFAULT_RETRY_AFTER_MS;
+            }
+        }
+    }
+
+    private String acceptEncoding() {
+        return config.httpCompression() ? ACCEPT_ENCODING : "identity";
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
     
 
-    private JsonNode executeQuery(String dql, String token) throws Exception {
+    private CompletableFuture<HttpResponse<InputStream>> executeQueryAsync(String dql, String token, long requestTimeoutMillis) throws Exception {
 
         
         Map<String, Object> body = Map.of(
                 "query", dql,
                 "maxResultBytes", MAX_RESULT_BYTES,
-                "maxResultRecords", MAX_RESULT_RECORDS
+                "maxResultRecords", MAX_RESULT_RECORDS,
+                "requestTimeoutMilliseconds", requestTimeoutMillis
         );
         
         String json = objectMapper.writeValueAsString(body);
@@ -141,143 +382,178 @@ public final class BizeventsClient {
                 .uri(executeURI)
                 .header("Authorization", "Bearer " + token)
                 .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", acceptEncoding())
+                .timeout(
+                        java.time.Duration.ofMillis(requestTimeoutMillis + HTTP_TIMEOUT_MARGIN_MS)
+                )
                 .POST(HttpRequest.BodyPublishers.ofString(json))
                 .build();
 
-        HttpResponse<String> response =
-                httpClient.send(
+        return transport.sendAsync(
                         request,
-                        HttpResponse.BodyHandlers.ofString()
+                        HttpResponse.BodyHandlers.ofInputStream()
                 );
-        
-    	//log.debug("Executed DQL query, received status: " + response.statusCode() + ", body: " + response.body());
+    }
 
-    	
+    private DqlResponse readExecuteResponse(HttpResponse<InputStream> response, RecordHandler handler) throws Exception {
 
         if (response.statusCode() >= 300) {
-            throw new RuntimeException(
-                    "DQL execute failed. Status="
-                            + response.statusCode()
-                            + ", body="
-                            + response.body()
+            long retryAfter = retryAfterMillis(response);
+            throw new DynatraceApiException(
+                    "execute",
+                    response.statusCode(),
+                    retryAfter,
+                    readErrorBody(response)
             );
         }
 
-        return objectMapper.readTree(response.body());
+        return responseReader.read(transport.decodedBody(response), handler);
     }
 
-    private JsonNode pollQuery(
+    private Received pollQuery(
             String requestToken,
             long requestTimeoutMillis,
-            String accessToken
+            String accessToken,
+            String latencyKey,
+            RecordHandler handler
     ) throws Exception {
 
         String host = String.format(DT_APP_URL, config.tenantName());
         String encoded = URLEncoder.encode(requestToken, StandardCharsets.UTF_8);
-        URI pollURI = URI.create(host + POLL_PATH + "?request-token=" + encoded);
+        URI pollURI = URI.create(host + POLL_PATH + "?request-token=" + encoded
+                + "&request-timeout-milliseconds=" + requestTimeoutMillis);
         
-        JsonNode result;
-        JsonNode records;
-
     //    log.info("Polling DQL with requestToken: " + requestToken);
         
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(pollURI)
                 .header("Authorization", "Bearer " + accessToken)
                 .header("Accept", "application/json")
+                .header("Accept-Encoding", acceptEncoding())
                 .timeout(
-                        java.time.Duration.ofMillis(requestTimeoutMillis)
+                        java.time.Duration.ofMillis(requestTimeoutMillis + HTTP_TIMEOUT_MARGIN_MS)
                 )
                 .GET()
                 .build();
 
-        HttpResponse<String> response =
-                httpClient.send(
-                        request,
-                        HttpResponse.BodyHandlers.ofString()
-                );
+        HttpResponse<InputStream> response = config.hedgedPolls()
+                ? sendHedged(request, latencyKey, requestTimeoutMillis)
+                : transport.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        long received = System.nanoTime();
         
-        
-        result = objectMapper.readTree(response.body());
-        if (response.statusCode() < 300) {
-        	records = result.path("result").path("records");
-        	int recordCount = records.size();
-        	String query = result.path("result").path("metadata").path("grail").path("query").asText();        	
-        	log.debug("Polled DQL query, received status: " + response.statusCode() + ", recordCount : " + recordCount + ", query: " + query);        	
-        }
-
         if (response.statusCode() >= 300) {
-        	log.error("DQL poll failed with status: " + response.statusCode() + ", body: " + response.body());
-            throw new RuntimeException(
-                    "DQL poll failed. Status="
-                            + response.statusCode()
-                            + ", body="
-                            + response.body()
-            );
+            long retryAfter = retryAfterMillis(response);
+        	String errorBody = readErrorBody(response);
+        	log.error("DQL poll failed with status: " + response.statusCode() + ", body: " + errorBody);
+            throw new DynatraceApiException("poll", response.statusCode(), retryAfter, errorBody);
         }
 
-        return result;
+        DqlResponse result = responseReader.read(transport.decodedBody(response), handler);
+        log.debug("Polled DQL query, received status: " + response.statusCode() + ", recordCount : " + result.recordCount() + ", query: " + result.query());
+
+        return new Received(result, received);
     }
 
-    public BizeventsResponse parseDataResult(JsonNode node) {
+    /**
+     * A read poll response and when its headers arrived.
+     */
+    private record Received(DqlResponse response, long receivedNanos) {
+    }
 
-        JsonNode resultNode = node.path("result");
-        if (resultNode.isMissingNode()) {
-            throw new IllegalStateException(
-                    "DQL response missing 'result' node"
-            );
+    /**
+     * Sends the poll and, if it is still outstanding well past the usual latency
+     * of this kind of query, sends the same poll again and takes whichever
+     * answers first. Polls are read-only, so the duplicate is safe; the slower
+     * response is closed when it arrives.
+     */
+    private HttpResponse<InputStream> sendHedged(HttpRequest request, String latencyKey, long requestTimeoutMillis) throws Exception {
+
+        CompletableFuture<HttpResponse<InputStream>> primary =
+                transport.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+
+        long hedgeDelay = pollingStrategy.hasHistory(latencyKey)
+                ? Math.max(MIN_HEDGE_DELAY_MS, HEDGE_LATENCY_FACTOR * pollingStrategy.expectedLatencyMillis(latencyKey))
+                : Long.MAX_VALUE;
+        if (hedgeDelay >= requestTimeoutMillis) {
+            // the server holds the poll at least this long anyway
+            return awaitResponse(primary);
         }
 
-        JsonNode recordsNode = resultNode.path("records");
-        if (!recordsNode.isArray()) {
-            throw new IllegalStateException(
-                    "DQL result.records is missing or not an array"
-            );
+        try {
+            return awaitResponse(primary, hedgeDelay);
+        } catch (TimeoutException slow) {
+            retryPolicy.hedgeSent();
+        }
+
+        CompletableFuture<HttpResponse<InputStream>> hedge =
+                transport.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        try {
+            CompletableFuture.anyOf(primary, hedge).get();
+        } catch (ExecutionException firstFailed) {
+            // fall through to whichever is still running
         }
 
-        List<JsonNode> events = new ArrayList<>();
-        recordsNode.forEach(events::add);
+        boolean hedgeWon = hedge.isDone() && !hedge.isCompletedExceptionally()
+                || primary.isCompletedExceptionally();
+        CompletableFuture<HttpResponse<InputStream>> winner = hedgeWon ? hedge : primary;
+        discard(hedgeWon ? primary : hedge);
+        if (hedgeWon) {
+            retryPolicy.hedgeWon();
+        }
+        return awaitResponse(winner);
+    }
 
-        Instant nextPageStartTime = null;
+    private static HttpResponse<InputStream> awaitResponse(CompletableFuture<HttpResponse<InputStream>> future) throws Exception {
+        return awaitResponse(future, Long.MAX_VALUE);
+    }
 
-        if (!events.isEmpty()) {
-            JsonNode lastEvent = events.get(events.size() - 1);
-            if (lastEvent.has("timestamp") && lastEvent.get("timestamp").isTextual()) {
-                nextPageStartTime =
-                        Instant.parse(lastEvent.get("timestamp").asText());
-            } 
+    private static HttpResponse<InputStream> awaitResponse(CompletableFuture<HttpResponse<InputStream>> future, long timeoutMillis) throws Exception {
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
         }
+    }
 
-        return new BizeventsResponse(events, nextPageStartTime);
+    private static void discard(CompletableFuture<HttpResponse<InputStream>> future) {
+        future.whenComplete((response, error) -> {
+            if (response != null) {
+                try {
+                    response.body().close();
+                } catch (Exception ignored) {}
+            }
+        });
     }
 
-    
-    public int parseCountResult(JsonNode node)
-            throws Exception {
-    	
-        JsonNode result = node.path("result");
-        if (result.isMissingNode()) {
-            throw new IllegalStateException(
-                    "DQL SUCCEEDED but result was missing"
-            );
+    private String readErrorBody(HttpResponse<InputStream> response) {
+        try (InputStream in = transport.decodedBody(response)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return "<unreadable: " + e.getMessage() + ">";
         }
-        
-        int  recordCount = result.path("records").get(0).path("count").asInt();        
-        return recordCount;
-        
     }
    		
 
+    /**
+     * One keyset page: records after {@code after} (or from {@code from} when null),
+     * sorted by (timestamp, event.id) before the limit so each page is the next
+     * {@code pageSize} records in a stable order.
+     */
     public String buildDataDql(
             Integration integration,
             Instant from,
             Instant to,
+            PageCursor after,
             int pageSize
     ) {
 
         String dql = "fetch bizevents, bucket:{\"sox_bizevents\"}, "
                 + "from: toTimestamp(\""
-                + from.toString() + "\")"	
+                + pageStart(from, after).toString() + "\")"	
                 + ", to: toTimestamp(\""
                 + to.toString()+ "\")"
                 + " "
@@ -285,12 +561,124 @@ public final class BizeventsClient {
                 + integration.getSource().toLowerCase()
                 + "\"  AND destination == \""
                 + integration.getDestination().toLowerCase()
-                + "\" | limit " + pageSize +  " | sort timestamp asc ";
+                + "\" "
+                + keysetClause(after, pageSize)
+                + config.fieldProjection(integration.getIcNumber()).dql();
         
      //   log.debug("Built DQL: " + dql);        
         return dql;
     }
     
+    /**
+     * One scan for several integrations. The in() filters admit the cross product
+     * of sources and destinations; records of pairs outside the group are dropped by the caller.
+     */
+    public String buildBatchDataDql(
+            List<Integration> group,
+            Instant from,
+            Instant to,
+            PageCursor after,
+            int pageSize
+    ) {
+
+        String dql = "fetch bizevents, bucket:{\"sox_bizevents\"}, "
+                + "from: toTimestamp(\""
+                + pageStart(from, after).toString() + "\")"
+                + ", to: toTimestamp(\""
+                + to.toString()+ "\")"
+                + " "
+                + "| filter " + pairFilter(group)
+                + " "
+                + keysetClause(after, pageSize)
+                + groupProjection(group).dql();
+
+        return dql;
+    }
+
+    /**
+     * The projection every member of a batch shares; see {@link ProcessIntegrationGroup#partition}.
+     */
+    private FieldProjection groupProjection(List<Integration> group) {
+        FieldProjection projection = config.fieldProjection(group.get(0).getIcNumber());
+        for (Integration integration : group) {
+            if (!projection.equals(config.fieldProjection(integration.getIcNumber()))) {
+                throw new IllegalArgumentException(
+                        "Integrations in one batch must share a field projection: "
+                                + group.get(0).getIcNumber() + " and " + integration.getIcNumber() + " differ");
+            }
+        }
+        return projection;
+    }
+
+    public String buildHistogramDql(
+            List<Integration> integrations,
+            Instant from,
+            Instant to
+    ) {
+
+        String dql = "fetch bizevents, bucket:{\"sox_bizevents\"}, "
+                + "from: toTimestamp(\""
+                + from.toString() + "\")"
+                + ", to: toTimestamp(\""
+                + to.toString()+ "\")"
+                + " "
+                + "| filter " + pairFilter(integrations)
+                + " | summarize count = count(), by:{source, destination, hour = bin(timestamp, 1h)}";
+
+        return dql;
+    }
+
+    private static Instant pageStart(Instant from, PageCursor after) {
+        return after == null ? from : after.timestamp();
+    }
+
+    /**
+     * Resumes strictly after the cursor, then sorts before limiting. A cursor
+     * without an event id cannot tell apart records sharing its timestamp, so
+     * it is rejected rather than skipping the rest of that millisecond.
+     */
+    static String keysetClause(PageCursor after, int pageSize) {
+
+        String clause = "";
+        if (after != null) {
+            if (after.eventId() == null) {
+                throw new IllegalStateException(
+                        "Cannot page after a record without event.id at " + after.timestamp()
+                                + "; records sharing its timestamp would be skipped");
+            }
+            String ts = "toTimestamp(\"" + after.timestamp().toString() + "\")";
+            clause = "| filter timestamp > " + ts
+                    + " OR (timestamp == " + ts + " AND event.id > \"" + escape(after.eventId()) + "\") ";
+        }
+
+        return clause + "| sort timestamp asc, event.id asc | limit " + pageSize + " ";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String pairFilter(List<Integration> integrations) {
+        Set<String> sources = new TreeSet<>();
+        Set<String> destinations = new TreeSet<>();
+        for (Integration integration : integrations) {
+            sources.add(integration.getSource().toLowerCase());
+            destinations.add(integration.getDestination().toLowerCase());
+        }
+        return "in(source, " + dqlArray(sources) + ")"
+                + " AND in(destination, " + dqlArray(destinations) + ")";
+    }
+
+    private static String dqlArray(Set<String> values) {
+        return values.stream()
+                .map(v -> "\"" + v + "\"")
+                .collect(Collectors.joining(", ", "{", "}"));
+    }
+
+    private static String batchKey(List<Integration> group) {
+        return "batch/" + group.stream().map(Integration::getIcNumber).collect(Collectors.joining(","));
+    }
+    
     public String buildCountDql(
             Integration integration,
             Instant from,
@@ -313,4 +701,52 @@ public final class BizeventsClient {
         return dql;
     }
 
+
+    /**
+     * Counts the records passed to a handler so a failed call knows whether it can start over.
+     */
+    private static final class DeliveryCounter implements RecordHandler {
+
+        private final RecordHandler delegate;
+        private int count;
+
+        DeliveryCounter(RecordHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onRecord(JsonNode record) throws Exception {
+            count++;
+            delegate.onRecord(record);
+        }
+
+        @Override
+        public boolean acceptsRaw() {
+            return delegate.acceptsRaw();
+        }
+
+        @Override
+        public void onRawRecord(RawRecord record) throws Exception {
+            count++;
+            delegate.onRawRecord(record);
+        }
+
+        int count() {
+            return count;
+        }
+
+        /**
+         * True if nothing was delivered yet or the handler discarded what it had.
+         */
+        boolean rewind() {
+            if (count == 0) {
+                return true;
+            }
+            if (delegate.reset()) {
+                count = 0;
+                return true;
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package com.marriott.finance.soxarchive;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Moves an integration's checkpoint over windows that complete out of order.
+ *
+ * The checkpoint only advances to the end of the last window of the
+ * contiguous completed prefix, so a window that finishes early never moves
+ * it past an earlier window that is still running or has failed.
+ */
+final class CheckpointWatermark {
+
+    @FunctionalInterface
+    interface Saver {
+        void save(Instant lastProcessed) throws Exception;
+    }
+
+    private final List<Instant> windowEnds;
+    private final boolean[] completed;
+    private final Saver saver;
+    private int contiguous;
+
+    /**
+     * @param windowEnds end of each window, in checkpoint order
+     */
+    CheckpointWatermark(List<Instant> windowEnds, Saver saver) {
+        this.windowEnds = List.copyOf(windowEnds);
+        this.completed = new boolean[windowEnds.size()];
+        this.saver = saver;
+    }
+
+    /**
+     * Marks window {@code index} as archived and saves the checkpoint if the contiguous prefix grew.
+     * Saves are serialised so checkpoints are written in increasing order.
+     */
+    synchronized void completed(int index) throws Exception {
+        completed[index] = true;
+        int before = contiguous;
+        while (contiguous < completed.length && completed[contiguous]) {
+            contiguous++;
+        }
+        if (contiguous > before) {
+            saver.save(windowEnds.get(contiguous - 1));
+        }
+    }
+
+    /**
+     * End of the last window of the completed prefix, or null if the first window is not done.
+     */
+    synchronized Instant watermark() {
+        return contiguous == 0 ? null : windowEnds.get(contiguous - 1);
+    }
+}
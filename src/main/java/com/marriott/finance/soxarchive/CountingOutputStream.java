@@ -0,0 +1,35 @@
+package com.marriott.finance.soxarchive;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through it, so the size of a file being written
+ * is known without flushing the layers above or asking the file system.
+ */
+final class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would write byte by byte
+        out.write(b, off, len);
+        count += len;
+    }
+
+    long count() {
+        return count;
+    }
+}
@@ -0,0 +1,40 @@
+package com.marriott.finance.soxarchive;
+
+/**
+ * Drops events that reach the archive twice.
+ *
+ * Records arrive in (timestamp, event.id) order, so a repeated event can only
+ * follow while the timestamp is unchanged: a page that overlaps the previous
+ * one, or a re-delivered page. Only the fingerprints of the current timestamp
+ * are kept, and they are forgotten when the timestamp moves on, so memory
+ * depends on the busiest millisecond rather than on the window.
+ */
+final class Deduplicator {
+
+    private final LongHashSet bucket = new LongHashSet();
+    private final StringBuilder bucketTimestamp = new StringBuilder();
+    private long duplicates;
+
+    /**
+     * @return true the first time the event is seen, false for a duplicate
+     */
+    boolean firstSeen(CharSequence timestamp, long fingerprint) {
+        if (!bucketTimestamp.isEmpty() && CharSequence.compare(bucketTimestamp, timestamp) == 0) {
+            if (bucket.add(fingerprint)) {
+                return true;
+            }
+            duplicates++;
+            return false;
+        }
+
+        bucket.clear();
+        bucketTimestamp.setLength(0);
+        bucketTimestamp.append(timestamp);
+        bucket.add(fingerprint);
+        return true;
+    }
+
+    long duplicates() {
+        return duplicates;
+    }
+}
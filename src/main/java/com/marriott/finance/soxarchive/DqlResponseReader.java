@@ -0,0 +1,142 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marriott.finance.soxarchive.model.DqlResponse;
+import com.marriott.finance.soxarchive.model.PageCursor;
+import com.marriott.finance.soxarchive.model.RecordHandler;
+
+import java.io.InputStream;
+import java.time.Instant;
+
+/**
+ * Streams a Grail query response with a Jackson {@link JsonParser}.
+ *
+ * Only one record is materialised at a time; it is passed to the
+ * {@link RecordHandler} and dropped, so memory does not grow with the page size.
+ * Handlers that {@link RecordHandler#acceptsRaw accept raw records} get each
+ * record copied as UTF-8 bytes instead of a {@link JsonNode} tree.
+ */
+public final class DqlResponseReader {
+
+    private static final String RESULT_TRUNCATED = "RESULT_TRUNCATED";
+    private static final String EVENT_ID = "event.id";
+
+    private final ObjectMapper objectMapper;
+
+    public DqlResponseReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public DqlResponse read(InputStream in, RecordHandler handler) throws Exception {
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("DQL response is not a JSON object");
+            }
+
+            ResultState result = new ResultState();
+            String state = null;
+            String requestToken = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                switch (field) {
+                    case "state" -> state = parser.getValueAsString();
+                    case "requestToken" -> requestToken = parser.getValueAsString();
+                    case "result" -> readResult(parser, handler, result);
+                    default -> parser.skipChildren();
+                }
+            }
+
+            return new DqlResponse(
+                    state,
+                    requestToken,
+                    result.present,
+                    result.recordCount,
+                    result.lastCursor,
+                    result.truncated,
+                    result.query
+            );
+        }
+    }
+
+    private void readResult(JsonParser parser, RecordHandler handler, ResultState result) throws Exception {
+
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        result.present = true;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "records" -> readRecords(parser, handler, result);
+                case "metadata" -> {
+                    JsonNode metadata = objectMapper.readTree(parser);
+                    JsonNode grail = metadata.path("grail");
+                    result.query = grail.path("query").asText(null);
+                    for (JsonNode notification : grail.path("notifications")) {
+                        if (RESULT_TRUNCATED.equals(notification.path("notificationType").asText())) {
+                            result.truncated = true;
+                        }
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private void readRecords(JsonParser parser, RecordHandler handler, ResultState result) throws Exception {
+
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IllegalStateException(
+                    "DQL result.records is missing or not an array"
+            );
+        }
+
+        if (handler.acceptsRaw()) {
+            RecordCopier copier = new RecordCopier(objectMapper.getFactory());
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                copier.copy(parser);
+                result.recordCount++;
+                handler.onRawRecord(copier);
+            }
+            // like the tree branch below, records without a timestamp leave the cursor where it was
+            result.lastCursor = copier.cursor();
+            return;
+        }
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            JsonNode record = objectMapper.readTree(parser);
+
+            JsonNode timestamp = record.get("timestamp");
+            if (timestamp != null && timestamp.isTextual()) {
+                JsonNode eventId = record.get(EVENT_ID);
+                result.lastCursor = new PageCursor(
+                        Instant.parse(timestamp.asText()),
+                        eventId != null && eventId.isTextual() ? eventId.asText() : null
+                );
+            }
+
+            result.recordCount++;
+            handler.onRecord(record);
+        }
+    }
+
+    private static final class ResultState {
+        private boolean present;
+        private int recordCount;
+        private PageCursor lastCursor;
+        private boolean truncated;
+        private String query;
+    }
+}
@@ -0,0 +1,39 @@
+package com.marriott.finance.soxarchive;
+
+/**
+ * 64-bit fingerprint of an event's identity: its {@code event.id}, or the
+ * whole serialised record when it has none. FNV-1a over the input, finished
+ * with the MurmurHash3 mixer so that similar ids spread over the whole range.
+ */
+public final class Fingerprint {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private Fingerprint() {
+        // utility class
+    }
+
+    public static long of(CharSequence eventId, byte[] record, int offset, int length) {
+        long hash = FNV_OFFSET;
+        if (eventId != null && !eventId.isEmpty()) {
+            for (int i = 0; i < eventId.length(); i++) {
+                hash = (hash ^ eventId.charAt(i)) * FNV_PRIME;
+            }
+        } else {
+            for (int i = offset; i < offset + length; i++) {
+                hash = (hash ^ (record[i] & 0xff)) * FNV_PRIME;
+            }
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe1a85a3bL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
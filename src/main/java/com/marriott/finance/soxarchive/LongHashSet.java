@@ -0,0 +1,70 @@
+package com.marriott.finance.soxarchive;
+
+import java.util.Arrays;
+
+/**
+ * Set of longs in one open-addressing table with linear probing, without boxing.
+ * Zero marks a free slot, so the value zero is stored as a separate flag.
+ */
+final class LongHashSet {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] table = new long[INITIAL_CAPACITY];
+    private int size;
+    private boolean containsZero;
+
+    /**
+     * @return true if the value was not in the set yet
+     */
+    boolean add(long value) {
+        if (value == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+
+        int mask = table.length - 1;
+        int slot = (int) (value ^ (value >>> 32)) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        // keep the load factor at or below one half
+        if (++size * 2 > table.length) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Empties the set; a table that grew for an unusually large bucket is released.
+     */
+    void clear() {
+        if (table.length > INITIAL_CAPACITY * 16) {
+            table = new long[INITIAL_CAPACITY];
+        } else if (size > 0) {
+            Arrays.fill(table, 0);
+        }
+        size = 0;
+        containsZero = false;
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 1;
+        for (long value : old) {
+            if (value != 0) {
+                int slot = (int) (value ^ (value >>> 32)) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.marriott.finance.soxarchive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide limit on the bytes held by buffered pages, a share of the heap.
+ *
+ * A fetch reserves room for its page before the query is sent, estimated from
+ * the average size of the records seen so far. If the whole page does not fit,
+ * a smaller page is asked for; if not even {@code MIN_PAGE_RECORDS} fit, the
+ * fetch waits for other pages to be written out. The reservation is corrected
+ * to the page's real size once it has arrived and released when the page has
+ * been drained into the archive.
+ *
+ * A fetch never waits longer than {@code MAX_WAIT_MILLIS}: after that it goes
+ * ahead with a minimum page over the limit, so workers whose buffered pages
+ * depend on each other cannot deadlock.
+ */
+public final class MemoryBudget {
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryBudget.class);
+
+    private static final long INITIAL_RECORD_BYTES = 2048;
+    private static final int MIN_PAGE_RECORDS = 1000;
+    private static final long MAX_WAIT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final long limitBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private long reservedBytes;
+    private long peakReservedBytes;
+    private double recordBytes = INITIAL_RECORD_BYTES;
+    private long splitPages;
+    private long waits;
+    private long overcommits;
+
+    /**
+     * @param limitBytes bytes all buffered pages may hold together; zero or less for no limit
+     */
+    public MemoryBudget(long limitBytes) {
+        this.limitBytes = limitBytes;
+    }
+
+    /**
+     * A budget of {@code percent} of the maximum heap; zero or less for no limit.
+     */
+    public static MemoryBudget ofHeap(int percent) {
+        if (percent <= 0) {
+            return new MemoryBudget(0);
+        }
+        MemoryBudget budget = new MemoryBudget(Runtime.getRuntime().maxMemory() / 100 * Math.min(percent, 100));
+        log.info("Page memory budget: {} MB ({}% of heap)", budget.limitBytes / (1024 * 1024), percent);
+        return budget;
+    }
+
+    /**
+     * Reserves room for a page of at most {@code maxRecords}, waiting while not even a minimum page fits.
+     */
+    public Reservation reservePage(int maxRecords) throws InterruptedException {
+        lock.lock();
+        try {
+            Reservation reservation = tryReserve(maxRecords);
+            if (reservation != null) {
+                return reservation;
+            }
+
+            waits++;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+            while (reservation == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    overcommits++;
+                    log.warn("Page memory budget exhausted for {} ms ({} of {} bytes reserved); fetching a minimum page anyway",
+                            MAX_WAIT_MILLIS, reservedBytes, limitBytes);
+                    int records = Math.min(maxRecords, MIN_PAGE_RECORDS);
+                    return reserve(records, estimate(records));
+                }
+                released.awaitNanos(remaining);
+                reservation = tryReserve(maxRecords);
+            }
+            return reservation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #reservePage} but returns null instead of waiting.
+     */
+    public Reservation tryReservePage(int maxRecords) {
+        lock.lock();
+        try {
+            return tryReserve(maxRecords);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Reservation tryReserve(int maxRecords) {
+        long bytes = estimate(maxRecords);
+        if (limitBytes <= 0 || reservedBytes + bytes <= limitBytes) {
+            return reserve(maxRecords, bytes);
+        }
+
+        int records = (int) Math.min(maxRecords, (limitBytes - reservedBytes) / recordBytes);
+        if (records >= Math.min(maxRecords, MIN_PAGE_RECORDS)) {
+            splitPages++;
+            return reserve(records, estimate(records));
+        }
+        return null;
+    }
+
+    private Reservation reserve(int records, long bytes) {
+        reservedBytes += bytes;
+        peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+        return new Reservation(records, bytes);
+    }
+
+    private long estimate(int records) {
+        return (long) Math.ceil(records * recordBytes);
+    }
+
+    private void resize(Reservation reservation, long bytes, int records) {
+        lock.lock();
+        try {
+            reservedBytes += bytes - reservation.bytes;
+            peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+            reservation.bytes = bytes;
+            if (records > 0) {
+                // moving average, so one page of unusually large records does not dominate
+                recordBytes = recordBytes * 0.75 + (double) bytes / records * 0.25;
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Reservation reservation) {
+        lock.lock();
+        try {
+            reservedBytes -= reservation.bytes;
+            reservation.bytes = 0;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes currently reserved by buffered pages.
+     */
+    public long reservedBytes() {
+        lock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long limitBytes() {
+        return limitBytes;
+    }
+
+    public void logStatistics() {
+        lock.lock();
+        try {
+            log.info(
+                    "Page memory budget: limit={} bytes, reserved={} bytes, peakReserved={} bytes, recordBytes={}, splitPages={}, waits={}, overcommits={}",
+                    limitBytes,
+                    reservedBytes,
+                    peakReservedBytes,
+                    (long) recordBytes,
+                    splitPages,
+                    waits,
+                    overcommits
+            );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Room for one page. {@link #release()} may be called more than once.
+     */
+    public final class Reservation {
+
+        private final int records;
+        private final AtomicBoolean releasedOnce = new AtomicBoolean();
+        private long bytes;
+
+        private Reservation(int records, long bytes) {
+            this.records = records;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Records the page may hold: the query's limit.
+         */
+        public int records() {
+            return records;
+        }
+
+        /**
+         * Replaces the estimate with the size of the page that actually arrived.
+         */
+        public void resize(long actualBytes, int actualRecords) {
+            if (!releasedOnce.get()) {
+                MemoryBudget.this.resize(this, actualBytes, actualRecords);
+            }
+        }
+
+        public void release() {
+            if (releasedOnce.compareAndSet(false, true)) {
+                MemoryBudget.this.release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.marriott.finance.soxarchive.model.RawRecord;
+import com.marriott.finance.soxarchive.model.RecordHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Holds one page of records as newline-delimited JSON bytes.
+ *
+ * Used by the pipelined fetch mode: the page is received in full, which reveals
+ * where the next page starts, and is written to the archive afterwards while the
+ * next query is already running. The buffer is reused from page to page.
+ * Each record's timestamp and {@link Fingerprint} are kept next to the bytes,
+ * for the archive's block index and its deduplication.
+ *
+ * A page filled against a {@link MemoryBudget} holds its reservation until it
+ * is drained; its byte buffer is then dropped if it grew beyond
+ * {@code RETAINED_BYTES}, so the memory is really given back.
+ */
+public final class PageBuffer implements RecordHandler {
+
+    private static final int RETAINED_BYTES = 1024 * 1024;
+
+    private Bytes bytes = new Bytes();
+    private final StringBuilder timestamps = new StringBuilder();
+    private int[] timestampEnds = new int[64];
+    private long[] fingerprints = new long[64];
+    private int recordCount;
+    private MemoryBudget.Reservation reservation;
+
+    @Override
+    public void onRecord(JsonNode record) {
+        byte[] json = record.toString().getBytes(StandardCharsets.UTF_8);
+        bytes.writeBytes(json);
+        bytes.write('\n');
+        long fingerprint = Fingerprint.of(record.path("event.id").asText(""), json, 0, json.length);
+        add(record.path("timestamp").asText(""), fingerprint);
+    }
+
+    @Override
+    public boolean acceptsRaw() {
+        return true;
+    }
+
+    @Override
+    public void onRawRecord(RawRecord record) {
+        bytes.write(record.buffer(), 0, record.length());
+        bytes.write('\n');
+        add(record.timestamp(), Fingerprint.of(record.eventId(), record.buffer(), 0, record.length()));
+    }
+
+    private void add(CharSequence timestamp, long fingerprint) {
+        if (recordCount == timestampEnds.length) {
+            timestampEnds = Arrays.copyOf(timestampEnds, recordCount * 2);
+            fingerprints = Arrays.copyOf(fingerprints, recordCount * 2);
+        }
+        timestamps.append(timestamp);
+        timestampEnds[recordCount] = timestamps.length();
+        fingerprints[recordCount++] = fingerprint;
+    }
+
+    /**
+     * Takes over the reservation the page was fetched with and corrects it to the page's size.
+     */
+    public void hold(MemoryBudget.Reservation reservation) {
+        reservation.resize(footprint(), recordCount);
+        this.reservation = reservation;
+    }
+
+    private long footprint() {
+        return bytes.buffer().length + timestamps.capacity() + 12L * timestampEnds.length;
+    }
+
+    @Override
+    public boolean reset() {
+        if (reservation != null) {
+            reservation.release();
+            reservation = null;
+            if (bytes.buffer().length > RETAINED_BYTES) {
+                bytes = new Bytes();
+            }
+        }
+        bytes.reset();
+        timestamps.setLength(0);
+        recordCount = 0;
+        return true;
+    }
+
+    public int recordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Writes every buffered record to the archive and empties the buffer.
+     */
+    public void drainTo(ArchivePartWriter writer) throws IOException {
+        byte[] buf = bytes.buffer();
+        int size = bytes.size();
+        int lineStart = 0;
+        int record = 0;
+        TimestampView timestamp = new TimestampView();
+        for (int i = 0; i < size; i++) {
+            if (buf[i] == '\n') {
+                timestamp.start = record == 0 ? 0 : timestampEnds[record - 1];
+                timestamp.end = timestampEnds[record];
+                writer.writeLine(buf, lineStart, i - lineStart, timestamp, fingerprints[record++]);
+                lineStart = i + 1;
+            }
+        }
+        reset();
+    }
+
+    /**
+     * One record's timestamp inside {@link #timestamps}, without copying it.
+     */
+    private final class TimestampView implements CharSequence {
+        private int start;
+        private int end;
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return timestamps.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return timestamps.subSequence(start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return timestamps.substring(start, end);
+        }
+    }
+
+    private static final class Bytes extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Takes filled pages from a fetch loop.
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        /**
+         * Consumes the page's records and returns an empty buffer for the next page,
+         * which is either the same buffer or a recycled one.
+         */
+        PageBuffer accept(PageBuffer page) throws Exception;
+    }
+}
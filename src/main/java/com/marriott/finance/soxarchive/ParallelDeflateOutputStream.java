@@ -0,0 +1,216 @@
+package com.marriott.finance.soxarchive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses one DEFLATE stream on several cores, like pigz; subclasses wrap it in a container.
+ *
+ * Input is cut into {@code BLOCK_BYTES} blocks. Each block is deflated on the
+ * process's compressor pool, see {@link #newPool}, with the previous block's
+ * last 32 KB as preset dictionary and ends with a sync flush, so the compressed blocks concatenate into one
+ * ordinary DEFLATE stream; only the last block is finished. The CRC is taken
+ * on the calling thread, and blocks are written in order, at most
+ * {@code 2 * threads} ahead of the output.
+ */
+abstract class ParallelDeflateOutputStream extends OutputStream {
+
+    static final int BLOCK_BYTES = 1024 * 1024;
+    private static final int DICTIONARY_BYTES = 32 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService compressors;
+    private final int maxInFlight;
+
+    private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block = new byte[BLOCK_BYTES];
+    private int position;
+    private byte[] dictionary;
+    private long uncompressedSize;
+    private long compressedSize;
+    private long written;
+    private boolean closed;
+
+    /**
+     * @param threads size of the pool; bounds how many blocks are compressed ahead of the output
+     */
+    ParallelDeflateOutputStream(OutputStream out, int level, ExecutorService compressors, int threads) {
+        this.out = out;
+        this.level = level;
+        this.compressors = compressors;
+        this.maxInFlight = 2 * threads;
+    }
+
+    /**
+     * Writes what follows the DEFLATE stream; the header is written by the subclass constructor.
+     */
+    protected abstract void writeTrailer(long crc, long compressedSize, long uncompressedSize) throws IOException;
+
+    /**
+     * The pool shared by every archive of the process, created once from COMPRESSION_THREADS;
+     * null when that is one or less and parts are deflated on the writing thread.
+     */
+    static ExecutorService newPool(int threads) {
+        if (threads <= 1) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "parallel-deflate");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[position++] = (byte) b;
+        if (position == block.length) {
+            submitBlock(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(b, off, block, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            if (position == block.length) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Finishes the DEFLATE stream and writes the container's trailer.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock(true);
+            while (!inFlight.isEmpty()) {
+                writeNextBlock();
+            }
+            writeTrailer(crc.getValue(), compressedSize, uncompressedSize);
+            out.close();
+        } finally {
+            for (Future<byte[]> pending : inFlight) {
+                pending.cancel(true);
+            }
+            inFlight.clear();
+            block = null;
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        byte[] input = block;
+        int length = position;
+        byte[] preset = dictionary;
+
+        crc.update(input, 0, length);
+        uncompressedSize += length;
+
+        if (!last) {
+            int tail = Math.min(DICTIONARY_BYTES, length);
+            dictionary = Arrays.copyOfRange(input, length - tail, length);
+            block = new byte[BLOCK_BYTES];
+            position = 0;
+        }
+
+        inFlight.add(compressors.submit(() -> deflate(input, length, preset, last, level)));
+        while (inFlight.size() > maxInFlight) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        try {
+            byte[] compressed = inFlight.poll().get();
+            out.write(compressed);
+            compressedSize += compressed.length;
+            written += compressed.length;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Block compression failed", e.getCause());
+        }
+    }
+
+    private static byte[] deflate(byte[] input, int length, byte[] dictionary, boolean last, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 4 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                // a full output buffer means the flush may not be complete yet
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    protected final void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        written += bytes.length;
+    }
+
+    /**
+     * Bytes written to the underlying stream so far.
+     */
+    protected final long written() {
+        return written;
+    }
+
+    protected final void writeShort(int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+        written += 2;
+    }
+
+    protected final void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xffff));
+        writeShort((int) ((v >>> 16) & 0xffff));
+    }
+
+    protected final void writeLong(long v) throws IOException {
+        writeInt(v & 0xFFFFFFFFL);
+        writeInt(v >>> 32);
+    }
+}
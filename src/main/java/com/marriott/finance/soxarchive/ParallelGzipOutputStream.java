@@ -0,0 +1,31 @@
+package com.marriott.finance.soxarchive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Writes a single gzip member whose DEFLATE blocks are compressed in parallel.
+ */
+final class ParallelGzipOutputStream extends ParallelDeflateOutputStream {
+
+    private static final byte[] HEADER = {
+            0x1f, (byte) 0x8b, // magic
+            8,                 // deflate
+            0,                 // flags
+            0, 0, 0, 0,        // no modification time
+            0,                 // extra flags
+            (byte) 255         // unknown OS
+    };
+
+    ParallelGzipOutputStream(OutputStream out, int level, ExecutorService compressors, int threads) throws IOException {
+        super(out, level, compressors, threads);
+        writeBytes(HEADER);
+    }
+
+    @Override
+    protected void writeTrailer(long crc, long compressedSize, long uncompressedSize) throws IOException {
+        writeInt(crc);
+        writeInt(uncompressedSize); // only the low 32 bits are written
+    }
+}
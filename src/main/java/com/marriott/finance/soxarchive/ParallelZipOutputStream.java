@@ -0,0 +1,134 @@
+package com.marriott.finance.soxarchive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Writes a ZIP archive with a single DEFLATE entry whose blocks are compressed in parallel.
+ *
+ * As with {@link java.util.zip.ZipOutputStream}, the sizes follow the data in a
+ * data descriptor, and switch to ZIP64 when the uncompressed size of a 1 GB
+ * part passes 4 GB.
+ */
+final class ParallelZipOutputStream extends ParallelDeflateOutputStream {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final int FLAGS = 0x0808; // data descriptor, UTF-8 name
+    private static final int DEFLATED = 8;
+    private static final long MAGIC = 0xFFFFFFFFL;
+
+    private final byte[] name;
+    private final long dosTime;
+
+    ParallelZipOutputStream(OutputStream out, String entryName, int level, ExecutorService compressors, int threads)
+            throws IOException {
+        super(out, level, compressors, threads);
+        this.name = entryName.getBytes(StandardCharsets.UTF_8);
+        this.dosTime = dosTime(LocalDateTime.now());
+        writeLocalHeader();
+    }
+
+    private void writeLocalHeader() throws IOException {
+        writeInt(LOCAL_HEADER);
+        writeShort(VERSION);
+        writeShort(FLAGS);
+        writeShort(DEFLATED);
+        writeInt(dosTime);
+        // crc and sizes follow in the data descriptor
+        writeInt(0);
+        writeInt(0);
+        writeInt(0);
+        writeShort(name.length);
+        writeShort(0);
+        writeBytes(name);
+    }
+
+    @Override
+    protected void writeTrailer(long crc, long compressedSize, long uncompressedSize) throws IOException {
+        boolean zip64 = compressedSize >= MAGIC || uncompressedSize >= MAGIC;
+
+        writeInt(DATA_DESCRIPTOR);
+        writeInt(crc);
+        if (zip64) {
+            writeLong(compressedSize);
+            writeLong(uncompressedSize);
+        } else {
+            writeInt(compressedSize);
+            writeInt(uncompressedSize);
+        }
+
+        long centralStart = written();
+        writeInt(CENTRAL_HEADER);
+        writeShort(zip64 ? ZIP64_VERSION : VERSION);
+        writeShort(zip64 ? ZIP64_VERSION : VERSION);
+        writeShort(FLAGS);
+        writeShort(DEFLATED);
+        writeInt(dosTime);
+        writeInt(crc);
+        writeInt(zip64 ? MAGIC : compressedSize);
+        writeInt(zip64 ? MAGIC : uncompressedSize);
+        writeShort(name.length);
+        writeShort(zip64 ? 20 : 0);
+        writeShort(0); // comment
+        writeShort(0); // disk
+        writeShort(0); // internal attributes
+        writeInt(0);   // external attributes
+        writeInt(0);   // local header offset
+        writeBytes(name);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(uncompressedSize);
+            writeLong(compressedSize);
+        }
+        long centralSize = written() - centralStart;
+
+        if (zip64) {
+            long zip64End = written();
+            writeInt(ZIP64_END);
+            writeLong(44);
+            writeShort(ZIP64_VERSION);
+            writeShort(ZIP64_VERSION);
+            writeInt(0);
+            writeInt(0);
+            writeLong(1);
+            writeLong(1);
+            writeLong(centralSize);
+            writeLong(centralStart);
+
+            writeInt(ZIP64_LOCATOR);
+            writeInt(0);
+            writeLong(zip64End);
+            writeInt(1);
+        }
+
+        writeInt(END);
+        writeShort(0);
+        writeShort(0);
+        writeShort(1);
+        writeShort(1);
+        writeInt(centralSize);
+        writeInt(Math.min(centralStart, MAGIC));
+        writeShort(0);
+    }
+
+    private static long dosTime(LocalDateTime time) {
+        int year = Math.max(1980, time.getYear());
+        return ((long) (year - 1980) << 25)
+                | ((long) time.getMonthValue() << 21)
+                | ((long) time.getDayOfMonth() << 16)
+                | ((long) time.getHour() << 11)
+                | ((long) time.getMinute() << 5)
+                | (time.getSecond() >> 1);
+    }
+}
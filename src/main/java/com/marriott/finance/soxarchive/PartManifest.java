@@ -0,0 +1,42 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
+
+/**
+ * Describes one uploaded archive part; uploaded after it as {@code <object>.manifest.json}.
+ *
+ * Everything is collected while the part is written, so audits and duplicate
+ * checks can work from the manifests without downloading the archives.
+ * {@code sha256} is taken over the object as stored, so it can be checked
+ * against a download without decompressing.
+ *
+ * @param query DQL of the window's first page; later pages continue it after the last record
+ * @param minTimestamp earliest event timestamp, null if no record had one
+ */
+public record PartManifest(
+        String integration,
+        String windowStart,
+        int partIndex,
+        String object,
+        ArchiveFormat format,
+        long records,
+        String minTimestamp,
+        String maxTimestamp,
+        long uncompressedBytes,
+        long compressedBytes,
+        String sha256,
+        String query
+) {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public byte[] toJson() {
+        try {
+            return MAPPER.writeValueAsBytes(this);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialise part manifest", e);
+        }
+    }
+}
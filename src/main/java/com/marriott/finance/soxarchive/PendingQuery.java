@@ -0,0 +1,70 @@
+package com.marriott.finance.soxarchive;
+
+import com.marriott.finance.soxarchive.http.AdaptiveConcurrencyLimiter;
+
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A DQL query whose query:execute request is in flight.
+ * Created by {@link BizeventsClient#submitQuery} and consumed once by {@link BizeventsClient#awaitQuery}.
+ */
+public record PendingQuery(
+        String dql,
+        String latencyKey,
+        String accessToken,
+        long submittedNanos,
+        AdaptiveConcurrencyLimiter.Permit permit,
+        CompletableFuture<HttpResponse<InputStream>> executeResponse,
+        AtomicLong respondedNanos
+) {
+
+    /**
+     * Wraps a sent execute request and stamps when its response arrives, which
+     * may be well before the caller gets round to {@link #await} it.
+     */
+    static PendingQuery of(
+            String dql,
+            String latencyKey,
+            String accessToken,
+            AdaptiveConcurrencyLimiter.Permit permit,
+            long submittedNanos,
+            CompletableFuture<HttpResponse<InputStream>> executeResponse
+    ) {
+        AtomicLong responded = new AtomicLong();
+        return new PendingQuery(dql, latencyKey, accessToken, submittedNanos, permit,
+                executeResponse.thenApply(response -> {
+                    responded.set(System.nanoTime());
+                    return response;
+                }),
+                responded);
+    }
+
+    HttpResponse<InputStream> await() throws Exception {
+        try {
+            return executeResponse.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Abandons the query, releasing its limiter permit and the response stream if it already arrived.
+     */
+    public void cancel() {
+        permit.release();
+        executeResponse.whenComplete((response, error) -> {
+            if (response != null) {
+                try {
+                    response.body().close();
+                } catch (Exception ignored) {}
+            }
+        });
+    }
+}
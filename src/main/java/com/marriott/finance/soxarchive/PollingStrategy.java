@@ -0,0 +1,81 @@
+package com.marriott.finance.soxarchive;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how long to wait for a DQL query, based on how long queries with
+ * the same key (integration + query kind) took before.
+ *
+ * Grail long-polls: query:execute waits up to {@code requestTimeoutMilliseconds}
+ * and query:poll up to {@code request-timeout-milliseconds} and returns as soon
+ * as the query finishes. When a poll comes back early while the query is still
+ * RUNNING the server did not hold the request, and the client falls back to
+ * exponential backoff with full jitter, capped by the observed latency.
+ */
+public final class PollingStrategy {
+
+    private static final long MIN_WAIT_MS = 50;
+    private static final long DEFAULT_LATENCY_MS = 1000;
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final long requestTimeoutMillis;
+    private final Map<String, Long> latencyByKey = new ConcurrentHashMap<>();
+
+    public PollingStrategy(long requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    /**
+     * Server-side wait for query:execute: a bit more than the usual latency,
+     * so typical queries complete in the first response.
+     */
+    public long initialWaitMillis(String key) {
+        long expected = expectedLatencyMillis(key);
+        return Math.max(MIN_WAIT_MS, Math.min(requestTimeoutMillis, expected + expected / 2));
+    }
+
+    /**
+     * Server-side wait for query:poll.
+     */
+    public long pollWaitMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * True when a RUNNING poll returned well before its long-poll timeout,
+     * i.e. the server did not hold the request and the client must pace itself.
+     */
+    public boolean returnedEarly(long pollElapsedMillis) {
+        return pollElapsedMillis < pollWaitMillis() / 2;
+    }
+
+    /**
+     * Client-side sleep before poll number {@code attempt} (0-based) when the
+     * server returned early: full jitter over an exponential step, never longer
+     * than the query usually takes.
+     */
+    public long backoffMillis(String key, int attempt) {
+        long cap = Math.max(MIN_WAIT_MS, expectedLatencyMillis(key));
+        long step = MIN_WAIT_MS << Math.min(attempt, 16);
+        long bound = Math.min(cap, step);
+        return ThreadLocalRandom.current().nextLong(MIN_WAIT_MS, bound + 1);
+    }
+
+    /**
+     * Records the end-to-end latency of a successful query.
+     */
+    public void recordLatency(String key, long millis) {
+        latencyByKey.merge(key, millis,
+                (previous, latest) -> Math.round(previous * (1 - LATENCY_WEIGHT) + latest * LATENCY_WEIGHT));
+    }
+
+    public boolean hasHistory(String key) {
+        return latencyByKey.containsKey(key);
+    }
+
+    public long expectedLatencyMillis(String key) {
+        return latencyByKey.getOrDefault(key, DEFAULT_LATENCY_MS);
+    }
+}
@@ -1,34 +1,34 @@
 package com.marriott.finance.soxarchive;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.marriott.finance.soxarchive.config.AppConfig;
 import com.marriott.finance.soxarchive.model.BizeventsResponse;
 import com.marriott.finance.soxarchive.model.Checkpoint;
 import com.marriott.finance.soxarchive.model.CheckpointStore;
 import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.PageCursor;
+import com.marriott.finance.soxarchive.model.WorkUnit;
 import com.marriott.finance.soxarchive.s3.S3Uploader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.nio.file.Files;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public final class ProcessIntegration {
 
     private static final Logger log =
             LoggerFactory.getLogger(ProcessIntegration.class);
 
-    private static final int PAGE_SIZE = 1000;
-    private static final int HOURS_PER_WINDOW = 1;
+    static final int HOURS_PER_WINDOW = 1;
     private static final int INITIALIZE_DAYS = 1;
-    private static final long MAX_ZIP_BYTES = 1L * 1024 * 1024 * 1024; // 1GB
 
     private ProcessIntegration() {
         // utility class
@@ -38,162 +38,492 @@ public final class ProcessIntegration {
             BizeventsClient bizeventsClient,
             CheckpointStore checkpointStore,
             S3Uploader s3Uploader,
+            ExecutorService compressors,
             Integration integration,
             AppConfig config
     ) throws Exception {
 
-    	Instant windowStart = Instant.now()
-    	        .minus(Duration.ofDays(INITIALIZE_DAYS))
-    	        .truncatedTo(ChronoUnit.HOURS);
-    	Checkpoint checkpoint = checkpointStore.load(integration.getId());
-    	if (checkpoint != null) {
-    	    windowStart = checkpoint.lastProcessedTimestamp().truncatedTo(ChronoUnit.HOURS);
-    	}      
-    	
-    	
-        while (windowStart.isBefore( Instant.now().truncatedTo(ChronoUnit.HOURS).minus(1, ChronoUnit.HOURS))) {
+        processIntegration(bizeventsClient, checkpointStore, s3Uploader, compressors, integration, config, null);
+    }
 
-            Instant windowEnd =
-                    windowStart.plus(Duration.ofHours(HOURS_PER_WINDOW));
+    /**
+     * Executes the planned windows of one integration without count queries.
+     * Hours missing from the plan were empty, so once every unit is archived
+     * the checkpoint moves to the end of the plan. Windows that became
+     * eligible after the plan was built are handled by the regular loop.
+     *
+     * An integration that is more than one window behind is caught up with
+     * up to BACKFILL_PARALLELISM windows in flight, see {@link #backfillWindows}.
+     */
+    public static void processIntegration(
+            BizeventsClient bizeventsClient,
+            CheckpointStore checkpointStore,
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            Integration integration,
+            AppConfig config,
+            BacklogPlan plan
+    ) throws Exception {
 
-            log.info( "[{}] Processing window {} -> {}",  integration.getId(), windowStart, windowEnd  );
+        Instant windowStart = initialWindowStart(checkpointStore, integration);
+        boolean planned = plan != null && plan.covers(integration);
+
+        List<WorkUnit> backlog = planned
+                ? plan.unitsFor(integration)
+                : pendingWindows(windowStart, processingCutoff());
+        int parallelism = Math.min(config.backfillParallelism(), backlog.size());
 
-            int totalCount = bizeventsClient.getCount( integration, windowStart, windowEnd );
+        if (parallelism > 1) {
+            backfillWindows(bizeventsClient, checkpointStore, s3Uploader, compressors, integration, config, backlog, parallelism);
 
-            if (totalCount == 0) {
-                log.info("[{}] No records in window", integration.getId());
-                windowStart = windowEnd;
-                continue;
+            if (planned) {
+                if (windowStart.isBefore(plan.end())) {
+                    saveCheckpoint(checkpointStore, integration, plan.end());
+                    log.info("[{}] Backlog plan completed, checkpoint moved to {}", integration.getId(), plan.end());
+                }
+                windowStart = plan.end();
+            } else {
+                windowStart = backlog.get(backlog.size() - 1).windowEnd();
             }
 
-            boolean wroteData = false;
-
-            File currentZipFile = null;
-            ZipOutputStream zos = null;
-            int partIndex = 1;
-
-            try {
-                // create initial zip/entry
-                currentZipFile = File.createTempFile(config.getTempLocalDir() +
-                        "/bizevents-" + integration.getId() + "-part" + partIndex + "-",
-                        ".zip"
-                );
-                zos = new ZipOutputStream(new FileOutputStream(currentZipFile));
-                zos.putNextEntry(new ZipEntry(integration.getId() + "_events.jsonl"));
-
-                Instant nextPageStart = windowStart;
-
-                while (true) {
-                    BizeventsResponse response =
-                            bizeventsClient.getData(
-                                    integration,
-                                    nextPageStart,
-                                    windowEnd,
-                                    PAGE_SIZE
-                            );
-
-                    if (response == null
-                            || response.events() == null
-                            || response.events().isEmpty()) {
-                        break;
-                    }
+            // windows that became eligible while catching up
+            processWindows(bizeventsClient, checkpointStore, s3Uploader, compressors, integration, config, windowStart, null);
+            return;
+        }
 
-                    for (JsonNode event : response.events()) {
-                        byte[] bytes = event.toString().getBytes();
-                        zos.write(bytes);
-                        zos.write('\n');
-                        wroteData = true;
-
-                        zos.flush();
-                        // check size and roll if exceeds limit
-                        if (currentZipFile.length() >= MAX_ZIP_BYTES) {
-                            // close current zip entry and stream
-                            zos.closeEntry();
-                            zos.close();
-
-                            // upload rolled file if it has data
-                            if (currentZipFile.length() > 0) {
-                                s3Uploader.uploadZip(integration, currentZipFile, windowStart);
-                                log.info("[{}] Uploaded rolled part {} ({} bytes)", integration.getId(), partIndex, currentZipFile.length());
-                            }
-
-                            Files.deleteIfExists(currentZipFile.toPath());
-
-                            // prepare next part
-                            partIndex++;
-                            currentZipFile = File.createTempFile(
-                                    "bizevents-" + integration.getId() + "-part" + partIndex + "-",
-                                    ".zip"
-                            );
-                            zos = new ZipOutputStream(new FileOutputStream(currentZipFile));
-                            zos.putNextEntry(new ZipEntry(integration.getId() + "_events.jsonl"));
-                        }
-                    }
+        try (ArchivePipeline pipeline = config.stagedPipeline()
+                ? new ArchivePipeline(s3Uploader, compressors, checkpointStore, integration, config)
+                : null) {
+
+            if (planned) {
+                for (WorkUnit unit : plan.unitsFor(integration)) {
+                    log.info( "[{}] Processing planned window {} -> {} ({} expected records)",
+                            integration.getId(), unit.windowStart(), unit.windowEnd(), unit.expectedCount() );
 
-                    nextPageStart = response.nextPageStartTime().plus(Duration.ofMillis(1));
+                    long written = archiveWindow(bizeventsClient, checkpointStore, s3Uploader, compressors, integration, config,
+                            unit.windowStart(), unit.windowEnd(), unit.expectedCount(), pipeline);
 
-                    totalCount = bizeventsClient.getCount( integration, windowStart, nextPageStart );
-                    if(totalCount == 0) {
-                        break;
+                    if (written != unit.expectedCount()) {
+                        log.info( "[{}] Window {} archived {} records, histogram reported {}",
+                                integration.getId(), unit.windowStart(), written, unit.expectedCount() );
                     }
+                }
 
+                if (windowStart.isBefore(plan.end())) {
+                    if (pipeline != null) {
+                        pipeline.saveCheckpoint(plan.end());
+                    } else {
+                        saveCheckpoint(checkpointStore, integration, plan.end());
+                        log.info("[{}] Backlog plan completed, checkpoint moved to {}", integration.getId(), plan.end());
+                    }
+                    // with the pipeline the checkpoint may not be saved yet, so continue from the plan itself
+                    windowStart = plan.end();
                 }
+            }
+
+            processWindows(bizeventsClient, checkpointStore, s3Uploader, compressors, integration, config, windowStart, pipeline);
 
-                // close last entry/stream for the current part
-                if (zos != null) {
-                    zos.closeEntry();
-                    zos.close();
-                    zos = null;
+            if (pipeline != null) {
+                pipeline.finish();
+            }
+        }
+    }
+
+    /**
+     * Archives a backlog of windows concurrently, each with its own part writer.
+     *
+     * Windows finish out of order, so the checkpoint follows a
+     * {@link CheckpointWatermark}: it only moves to the end of the last window
+     * before which every window is archived. If a window fails, the windows not
+     * started yet are cancelled and the checkpoint stays at the gap; windows
+     * after it that did complete are archived again by the next run.
+     * The staged pipeline is not used here: windows on different threads
+     * already overlap fetching, compression and upload.
+     */
+    private static void backfillWindows(
+            BizeventsClient bizeventsClient,
+            CheckpointStore checkpointStore,
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            Integration integration,
+            AppConfig config,
+            List<WorkUnit> windows,
+            int parallelism
+    ) throws Exception {
+
+        log.info("[{}] Backfilling {} windows {} -> {} with {} in parallel",
+                integration.getId(), windows.size(), windows.get(0).windowStart(),
+                windows.get(windows.size() - 1).windowEnd(), parallelism);
+
+        CheckpointWatermark watermark = new CheckpointWatermark(
+                windows.stream().map(WorkUnit::windowEnd).toList(),
+                lastProcessed -> {
+                    saveCheckpoint(checkpointStore, integration, lastProcessed);
+                    log.info("[{}] Windows up to {} archived, checkpoint updated", integration.getId(), lastProcessed);
                 }
+        );
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        List<Future<?>> futures = new ArrayList<>(windows.size());
+
+        try {
+            for (int i = 0; i < windows.size(); i++) {
+                int index = i;
+                WorkUnit window = windows.get(i);
+                futures.add(pool.submit(() -> {
+                    backfillWindow(bizeventsClient, s3Uploader, compressors, integration, config, window);
+                    watermark.completed(index);
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                awaitWindow(future);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void backfillWindow(
+            BizeventsClient bizeventsClient,
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            Integration integration,
+            AppConfig config,
+            WorkUnit window
+    ) throws Exception {
+
+        log.info( "[{}] Processing window {} -> {}",  integration.getId(), window.windowStart(), window.windowEnd() );
+
+        long expectedCount = window.expectedCount();
+        if (expectedCount < 0 && !config.skipWindowCount(integration.getIcNumber())) {
+            expectedCount = bizeventsClient.getCount( integration, window.windowStart(), window.windowEnd() );
+
+            if (expectedCount == 0) {
+                log.info("[{}] No records in window {}", integration.getId(), window.windowStart());
+                return;
+            }
+        }
+
+        long written = writeWindow(bizeventsClient, s3Uploader, compressors, integration, config,
+                window.windowStart(), window.windowEnd(), expectedCount);
+
+        log.info("[{}] Window {} -> {} archived ({} records)",
+                integration.getId(), window.windowStart(), window.windowEnd(), written);
+    }
+
+    private static void awaitWindow(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hourly windows from {@code windowStart} up to the cutoff; their record counts are not known yet.
+     */
+    static List<WorkUnit> pendingWindows(Instant windowStart, Instant cutoff) {
+        List<WorkUnit> windows = new ArrayList<>();
+        while (windowStart.isBefore(cutoff)) {
+            Instant windowEnd = windowStart.plus(Duration.ofHours(HOURS_PER_WINDOW));
+            windows.add(new WorkUnit(windowStart, windowEnd, -1));
+            windowStart = windowEnd;
+        }
+        return windows;
+    }
+
+    private static void processWindows(
+            BizeventsClient bizeventsClient,
+            CheckpointStore checkpointStore,
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            Integration integration,
+            AppConfig config,
+            Instant windowStart,
+            ArchivePipeline pipeline
+    ) throws Exception {
+
+        while (windowStart.isBefore( processingCutoff() )) {
+
+            Instant windowEnd =
+                    windowStart.plus(Duration.ofHours(HOURS_PER_WINDOW));
+
+            log.info( "[{}] Processing window {} -> {}",  integration.getId(), windowStart, windowEnd  );
 
-                // upload last part if it contains data
-                if (currentZipFile != null && currentZipFile.length() > 0) {
-                    s3Uploader.uploadZip(integration, currentZipFile, windowStart);
-                    log.info("[{}] Uploaded final part {} ({} bytes)", integration.getId(), partIndex, currentZipFile.length());
-                    Files.deleteIfExists(currentZipFile.toPath());
+            long expectedCount = -1;
+            if (!config.skipWindowCount(integration.getIcNumber())) {
+                int totalCount = bizeventsClient.getCount( integration, windowStart, windowEnd );
+                expectedCount = totalCount;
+
+                if (totalCount == 0) {
+                    log.info("[{}] No records in window", integration.getId());
+                    windowStart = windowEnd;
+                    continue;
                 }
+            }
 
-                if (wroteData) {
-                    checkpointStore.save(
-                            new Checkpoint(
-                                    integration.getId(),
-                                    windowEnd,
-                                    Instant.now()
-                            )
-                    );
+            archiveWindow(bizeventsClient, checkpointStore, s3Uploader, compressors, integration, config, windowStart, windowEnd, expectedCount, pipeline);
+
+            windowStart = windowEnd;
+        }
+    }
+
+    /**
+     * Fetches and uploads one window and advances the checkpoint if anything was written.
+     * With a pipeline the window is only fetched here; compression, upload and the
+     * checkpoint follow on the pipeline's stages.
+     *
+     * @param expectedCount record count from a count query or the backlog plan, -1 if unknown
+     * @return number of records archived (fetched, with a pipeline)
+     */
+    private static long archiveWindow(
+            BizeventsClient bizeventsClient,
+            CheckpointStore checkpointStore,
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            Integration integration,
+            AppConfig config,
+            Instant windowStart,
+            Instant windowEnd,
+            long expectedCount,
+            ArchivePipeline pipeline
+    ) throws Exception {
+
+        if (pipeline != null) {
+            int pageSize = pageSize(config);
+            int slices = sliceCount(config, integration, expectedCount);
+
+            pipeline.beginWindow(windowStart, windowEnd,
+                    bizeventsClient.buildDataDql(integration, windowStart, windowEnd, null, pageSize));
+            if (slices > 1) {
+                SliceFetcher.fetchSlices(bizeventsClient, integration, windowStart, windowEnd, slices, pageSize, pipeline::accept);
+            } else {
+                fetchPipelined(bizeventsClient, integration, windowStart, windowEnd, pageSize, pipeline::accept);
+            }
+            return pipeline.endWindow();
+        }
+
+        long written = writeWindow(bizeventsClient, s3Uploader, compressors, integration, config, windowStart, windowEnd, expectedCount);
+
+        if (written > 0) {
+            saveCheckpoint(checkpointStore, integration, windowEnd);
+
+            log.info(
+                    "[{}] Window {} -> {} archived and checkpoint updated",
+                    integration.getId(),
+                    windowStart,
+                    windowEnd
+            );
+        } else {
+            log.info(
+                    "[{}] No data written for window {} -> {}",
+                    integration.getId(),
+                    windowStart,
+                    windowEnd
+            );
+        }
+
+        return written;
+    }
+
+    /**
+     * Fetches one window into its own part writer and uploads every part; does not touch the checkpoint.
+     *
+     * @return number of records archived
+     */
+    private static long writeWindow(
+            BizeventsClient bizeventsClient,
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            Integration integration,
+            AppConfig config,
+            Instant windowStart,
+            Instant windowEnd,
+            long expectedCount
+    ) throws Exception {
+
+        int pageSize = pageSize(config);
+        int slices = sliceCount(config, integration, expectedCount);
+
+        String query = bizeventsClient.buildDataDql(integration, windowStart, windowEnd, null, pageSize);
+
+        try (ArchivePartWriter writer =
+                     new ArchivePartWriter(s3Uploader, compressors, integration, windowStart, query, config)) {
+
+            PageBuffer.Sink toWriter = page -> {
+                page.drainTo(writer);
+                return page;
+            };
+            if (slices > 1) {
+                SliceFetcher.fetchSlices(bizeventsClient, integration, windowStart, windowEnd, slices, pageSize, toWriter);
+            } else if (config.pipelinedFetch()) {
+                fetchPipelined(bizeventsClient, integration, windowStart, windowEnd, pageSize, toWriter);
+            } else {
+                fetchSequential(bizeventsClient, integration, windowStart, windowEnd, pageSize, writer);
+            }
+
+            // close and upload the last part if it contains data
+            writer.finish();
+
+            return writer.recordsWritten();
+        }
+    }
+
+    private static void saveCheckpoint(CheckpointStore checkpointStore, Integration integration, Instant lastProcessed) {
+        checkpointStore.save(
+                new Checkpoint(
+                        integration.getId(),
+                        lastProcessed,
+                        Instant.now()
+                )
+        );
+    }
 
-                    log.info(
-                            "[{}] Window {} -> {} archived and checkpoint updated",
-                            integration.getId(),
+    /**
+     * Records per page: BIZEVENTS_PAGE_SIZE, capped at what Grail returns for one query.
+     */
+    static int pageSize(AppConfig config) {
+        return Math.max(1, Math.min(config.pageSize(), BizeventsClient.MAX_RESULT_RECORDS));
+    }
+
+    /**
+     * Number of parallel slices for a window: one unless the integration allows fan-out
+     * and the window is known to hold enough records for each slice.
+     */
+    static int sliceCount(AppConfig config, Integration integration, long expectedCount) {
+        int fanOut = config.sliceFanOut(integration.getIcNumber());
+        if (fanOut <= 1 || expectedCount <= 0) {
+            return 1;
+        }
+        long bySize = expectedCount / Math.max(1, config.sliceMinRecords());
+        return (int) Math.max(1, Math.min(fanOut, bySize));
+    }
+
+    /**
+     * First window to process: the checkpointed hour, or {@code INITIALIZE_DAYS} back for a new integration.
+     */
+    static Instant initialWindowStart(CheckpointStore checkpointStore, Integration integration) {
+    	Instant windowStart = Instant.now()
+    	        .minus(Duration.ofDays(INITIALIZE_DAYS))
+    	        .truncatedTo(ChronoUnit.HOURS);
+    	Checkpoint checkpoint = checkpointStore.load(integration.getId());
+    	if (checkpoint != null) {
+    	    windowStart = checkpoint.lastProcessedTimestamp().truncatedTo(ChronoUnit.HOURS);
+    	}
+    	return windowStart;
+    }
+
+    /**
+     * Windows starting at or after this instant are not processed yet, leaving late events time to arrive.
+     */
+    static Instant processingCutoff() {
+        return Instant.now().truncatedTo(ChronoUnit.HOURS).minus(1, ChronoUnit.HOURS);
+    }
+
+    /**
+     * Fetches one page at a time, writing records as they are parsed.
+     * A short page ends the window; no count query is issued between pages.
+     */
+    private static void fetchSequential(
+            BizeventsClient bizeventsClient,
+            Integration integration,
+            Instant windowStart,
+            Instant windowEnd,
+            int pageSize,
+            ArchivePartWriter writer
+    ) throws Exception {
+
+        PageCursor cursor = null;
+
+        while (true) {
+            // records are copied from the response into the archive as they are parsed
+            BizeventsResponse response =
+                    bizeventsClient.getData(
+                            integration,
                             windowStart,
-                            windowEnd
+                            windowEnd,
+                            cursor,
+                            pageSize,
+                            writer
                     );
-                } else {
-                    log.info(
-                            "[{}] No data written for window {} -> {}",
-                            integration.getId(),
+
+            if (response == null || response.isLastPage(pageSize)) {
+                break;
+            }
+
+            cursor = response.next();
+        }
+    }
+
+    /**
+     * Receives page N into a buffer, starts the query for page N+1 as soon as
+     * page N's last record is known, then hands page N to the sink while Grail
+     * runs the next query. Nothing is prefetched after a short page.
+     *
+     * Each page is reserved against the client's {@link MemoryBudget} first and
+     * may be asked for with a smaller limit. Page N+1 is only started early if
+     * the budget has room right away; otherwise page N is written out before
+     * waiting for room, so a waiting fetch never holds a page itself.
+     */
+    private static void fetchPipelined(
+            BizeventsClient bizeventsClient,
+            Integration integration,
+            Instant windowStart,
+            Instant windowEnd,
+            int pageSize,
+            PageBuffer.Sink sink
+    ) throws Exception {
+
+        MemoryBudget budget = bizeventsClient.memoryBudget();
+        PageBuffer page = new PageBuffer();
+        MemoryBudget.Reservation reservation = budget.reservePage(pageSize);
+        PendingQuery pending = null;
+
+        try {
+            pending = bizeventsClient.submitData(integration, windowStart, windowEnd, null, reservation.records());
+
+            while (pending != null) {
+                BizeventsResponse response = bizeventsClient.getData(pending, page);
+                pending = null;
+                int limit = reservation.records();
+                page.hold(reservation);
+                reservation = null;
+
+                boolean written = false;
+                if (!response.isLastPage(limit)) {
+                    reservation = budget.tryReservePage(pageSize);
+                    if (reservation == null) {
+                        page = sink.accept(page);
+                        written = true;
+                        reservation = budget.reservePage(pageSize);
+                    }
+                    pending = bizeventsClient.submitData(
+                            integration,
                             windowStart,
-                            windowEnd
+                            windowEnd,
+                            response.next(),
+                            reservation.records()
                     );
                 }
 
-            } finally {
-                // ensure streams/files cleaned up if an exception occurred
-                try {
-                    if (zos != null) {
-                        try { zos.closeEntry(); } catch (Exception ignored) {}
-                        try { zos.close(); } catch (Exception ignored) {}
-                    }
-                } catch (Exception ignored) {}
-
-                if (currentZipFile != null) {
-                    try {
-                        Files.deleteIfExists(currentZipFile.toPath());
-                    } catch (Exception ignored) {}
+                if (!written) {
+                    page = sink.accept(page);
                 }
             }
-
-            windowStart = windowEnd;
+        } finally {
+            if (pending != null) {
+                pending.cancel();
+            }
+            if (reservation != null) {
+                reservation.release();
+            }
+            // a page the sink did not take
+            page.reset();
         }
     }
 }
@@ -0,0 +1,250 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.marriott.finance.soxarchive.config.AppConfig;
+import com.marriott.finance.soxarchive.model.BizeventsResponse;
+import com.marriott.finance.soxarchive.model.Checkpoint;
+import com.marriott.finance.soxarchive.model.CheckpointStore;
+import com.marriott.finance.soxarchive.model.FieldProjection;
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.PageCursor;
+import com.marriott.finance.soxarchive.model.RawRecord;
+import com.marriott.finance.soxarchive.model.RecordHandler;
+import com.marriott.finance.soxarchive.s3.S3Uploader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+/**
+ * Batched fetch mode: one DQL scan per window for a group of integrations,
+ * with each record routed by source/destination to its integration's archive writer.
+ */
+public final class ProcessIntegrationGroup {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(ProcessIntegrationGroup.class);
+
+    private ProcessIntegrationGroup() {
+        // utility class
+    }
+
+    /**
+     * Splits integrations into groups of at most {@code groupSize} (all in one group when
+     * {@code groupSize <= 0}). Only integrations with the same {@link FieldProjection}
+     * share a scan, so no member's archive gets fields it excludes. Sorting by source
+     * first keeps integrations that share a source, such as INT04 or INT15-2-2, in the same scan.
+     */
+    public static List<List<Integration>> partition(List<Integration> integrations, int groupSize, AppConfig config) {
+
+        List<Integration> sorted = new ArrayList<>(integrations);
+        sorted.sort(Comparator.comparing(Integration::getSource).thenComparing(Integration::getDestination));
+
+        Map<FieldProjection, List<Integration>> byProjection = new LinkedHashMap<>();
+        for (Integration integration : sorted) {
+            byProjection.computeIfAbsent(config.fieldProjection(integration.getIcNumber()), projection -> new ArrayList<>())
+                    .add(integration);
+        }
+
+        List<List<Integration>> groups = new ArrayList<>();
+        for (List<Integration> members : byProjection.values()) {
+            int size = groupSize <= 0 ? members.size() : groupSize;
+            for (int i = 0; i < members.size(); i += size) {
+                groups.add(List.copyOf(members.subList(i, Math.min(members.size(), i + size))));
+            }
+        }
+        return groups;
+    }
+
+    public static void processGroup(
+            BizeventsClient bizeventsClient,
+            CheckpointStore checkpointStore,
+            S3Uploader s3Uploader,
+            ExecutorService compressors,
+            List<Integration> group,
+            AppConfig config
+    ) throws Exception {
+
+        String groupId = group.stream().map(Integration::getIcNumber).collect(Collectors.joining(","));
+
+        Map<Integration, Instant> memberStarts = new LinkedHashMap<>();
+        for (Integration integration : group) {
+            memberStarts.put(integration, ProcessIntegration.initialWindowStart(checkpointStore, integration));
+        }
+
+        Instant windowStart = memberStarts.values().stream().min(Comparator.naturalOrder()).orElseThrow();
+
+        while (windowStart.isBefore( ProcessIntegration.processingCutoff() )) {
+
+            Instant windowEnd =
+                    windowStart.plus(Duration.ofHours(ProcessIntegration.HOURS_PER_WINDOW));
+
+            log.info( "[{}] Processing batched window {} -> {}",  groupId, windowStart, windowEnd  );
+
+            String query = bizeventsClient.buildBatchDataDql(group, windowStart, windowEnd, null, ProcessIntegration.pageSize(config));
+            Map<String, ArchivePartWriter> writers = new HashMap<>();
+            Map<Integration, ArchivePartWriter> activeWriters = new LinkedHashMap<>();
+            for (Map.Entry<Integration, Instant> member : memberStarts.entrySet()) {
+                // members whose checkpoint is already past this window do not get its records again
+                if (!member.getValue().isAfter(windowStart)) {
+                    Integration integration = member.getKey();
+                    ArchivePartWriter writer = new ArchivePartWriter(s3Uploader, compressors, integration, windowStart, query, config);
+                    writers.put(routeKey(integration.getSource(), integration.getDestination()), writer);
+                    activeWriters.put(integration, writer);
+                }
+            }
+
+            try {
+                Router router = fetchWindow(bizeventsClient, group, windowStart, windowEnd, writers, config);
+                if (router.skipped > 0) {
+                    log.debug("[{}] Skipped {} records of members already checkpointed past {}", groupId, router.skipped, windowStart);
+                }
+                if (router.unrouted > 0) {
+                    // the scan only asks for the group's pairs; anything else would be missing from every archive
+                    throw new IllegalStateException("[" + groupId + "] " + router.unrouted
+                            + " records of window " + windowStart + " -> " + windowEnd
+                            + " matched no integration of the group; window not checkpointed");
+                }
+
+                for (Map.Entry<Integration, ArchivePartWriter> active : activeWriters.entrySet()) {
+                    Integration integration = active.getKey();
+                    ArchivePartWriter writer = active.getValue();
+
+                    writer.finish();
+
+                    if (writer.wroteData()) {
+                        checkpointStore.save(
+                                new Checkpoint(
+                                        integration.getId(),
+                                        windowEnd,
+                                        Instant.now()
+                                )
+                        );
+                        log.info(
+                                "[{}] Window {} -> {} archived and checkpoint updated",
+                                integration.getId(),
+                                windowStart,
+                                windowEnd
+                        );
+                    } else {
+                        log.info(
+                                "[{}] No data written for window {} -> {}",
+                                integration.getId(),
+                                windowStart,
+                                windowEnd
+                        );
+                    }
+                }
+            } finally {
+                activeWriters.values().forEach(ArchivePartWriter::close);
+            }
+
+            windowStart = windowEnd;
+        }
+    }
+
+    /**
+     * Pages through the window for the whole group; the returned router holds
+     * the counts of records that were not archived.
+     */
+    private static Router fetchWindow(
+            BizeventsClient bizeventsClient,
+            List<Integration> group,
+            Instant windowStart,
+            Instant windowEnd,
+            Map<String, ArchivePartWriter> writers,
+            AppConfig config
+    ) throws Exception {
+
+        Router router = new Router(writers, group);
+        int pageSize = ProcessIntegration.pageSize(config);
+        PageCursor cursor = null;
+
+        while (true) {
+            BizeventsResponse response =
+                    bizeventsClient.getBatchData(
+                            group,
+                            windowStart,
+                            windowEnd,
+                            cursor,
+                            pageSize,
+                            router
+                    );
+
+            if (response == null || response.isLastPage(pageSize)) {
+                return router;
+            }
+
+            cursor = response.next();
+        }
+    }
+
+    /**
+     * Passes each record's raw JSON to the writer of its source/destination pair.
+     */
+    private static final class Router implements RecordHandler {
+
+        private final Map<String, ArchivePartWriter> writers;
+        private final Set<String> memberKeys = new HashSet<>();
+        /** records of members whose checkpoint is already past the window */
+        private long skipped;
+        /** records of pairs outside the group */
+        private long unrouted;
+
+        Router(Map<String, ArchivePartWriter> writers, List<Integration> group) {
+            this.writers = writers;
+            group.forEach(member -> memberKeys.add(routeKey(member.getSource(), member.getDestination())));
+        }
+
+        @Override
+        public void onRecord(JsonNode record) throws Exception {
+            String key = routeKey(record.path("source").asText(""), record.path("destination").asText(""));
+            ArchivePartWriter writer = writers.get(key);
+            if (writer != null) {
+                writer.onRecord(record);
+            } else {
+                notArchived(key);
+            }
+        }
+
+        @Override
+        public boolean acceptsRaw() {
+            return true;
+        }
+
+        @Override
+        public void onRawRecord(RawRecord record) throws Exception {
+            String key = routeKey(record.source().toString(), record.destination().toString());
+            ArchivePartWriter writer = writers.get(key);
+            if (writer != null) {
+                writer.onRawRecord(record);
+            } else {
+                notArchived(key);
+            }
+        }
+
+        private void notArchived(String key) {
+            if (memberKeys.contains(key)) {
+                skipped++;
+            } else {
+                unrouted++;
+            }
+        }
+    }
+
+    private static String routeKey(String source, String destination) {
+        return source.toLowerCase() + '\u0000' + destination.toLowerCase();
+    }
+}
@@ -0,0 +1,166 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.marriott.finance.soxarchive.model.PageCursor;
+import com.marriott.finance.soxarchive.model.RawRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Copies records token by token from the response parser into a reusable
+ * UTF-8 buffer, capturing the few top-level fields the archiver needs on the way.
+ *
+ * Strings and numbers are passed through from the parser's character buffer,
+ * so numbers keep their exact text and no per-record objects are created
+ * beyond what Jackson itself reuses.
+ */
+final class RecordCopier implements RawRecord {
+
+    private final Bytes bytes = new Bytes();
+    private final JsonGenerator generator;
+
+    private final StringBuilder timestamp = new StringBuilder();
+    private final StringBuilder eventId = new StringBuilder();
+    private final StringBuilder source = new StringBuilder();
+    private final StringBuilder destination = new StringBuilder();
+
+    // of the last record that had a timestamp
+    private final StringBuilder cursorTimestamp = new StringBuilder();
+    private final StringBuilder cursorEventId = new StringBuilder();
+
+    RecordCopier(JsonFactory factory) throws IOException {
+        this.generator = factory.createGenerator(bytes, JsonEncoding.UTF8);
+        // records are written one at a time, never separated by the generator
+        this.generator.setRootValueSeparator(null);
+    }
+
+    /**
+     * Copies the object the parser is positioned on (at its START_OBJECT) and leaves the parser at its END_OBJECT.
+     */
+    void copy(JsonParser parser) throws IOException {
+        bytes.reset();
+        timestamp.setLength(0);
+        eventId.setLength(0);
+        source.setLength(0);
+        destination.setLength(0);
+
+        generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            generator.writeFieldName(name);
+            JsonToken value = parser.nextToken();
+
+            StringBuilder capture = value == JsonToken.VALUE_STRING ? captureFor(name) : null;
+            if (capture != null) {
+                capture.append(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            }
+            copyValue(parser, value);
+        }
+        generator.writeEndObject();
+        generator.flush();
+
+        if (timestamp.length() > 0) {
+            cursorTimestamp.setLength(0);
+            cursorTimestamp.append(timestamp);
+            cursorEventId.setLength(0);
+            cursorEventId.append(eventId);
+        }
+    }
+
+    private void copyValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT -> {
+                generator.writeStartObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    generator.writeFieldName(parser.currentName());
+                    copyValue(parser, parser.nextToken());
+                }
+                generator.writeEndObject();
+            }
+            case START_ARRAY -> {
+                generator.writeStartArray();
+                for (JsonToken next = parser.nextToken(); next != JsonToken.END_ARRAY; next = parser.nextToken()) {
+                    copyValue(parser, next);
+                }
+                generator.writeEndArray();
+            }
+            case VALUE_STRING ->
+                    generator.writeString(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT ->
+                    generator.writeRawValue(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            case VALUE_TRUE -> generator.writeBoolean(true);
+            case VALUE_FALSE -> generator.writeBoolean(false);
+            case VALUE_NULL -> generator.writeNull();
+            default -> throw new IllegalStateException("Unexpected token in DQL record: " + token);
+        }
+    }
+
+    private StringBuilder captureFor(String field) {
+        return switch (field) {
+            case "timestamp" -> timestamp;
+            case "event.id" -> eventId;
+            case "source" -> source;
+            case "destination" -> destination;
+            default -> null;
+        };
+    }
+
+    /**
+     * Paging cursor of the last copied record that had a timestamp, or null if none had one.
+     */
+    PageCursor cursor() {
+        if (cursorTimestamp.length() == 0) {
+            return null;
+        }
+        return new PageCursor(
+                Instant.parse(cursorTimestamp),
+                cursorEventId.length() == 0 ? null : cursorEventId.toString()
+        );
+    }
+
+    @Override
+    public byte[] buffer() {
+        return bytes.buffer();
+    }
+
+    @Override
+    public int length() {
+        return bytes.size();
+    }
+
+    @Override
+    public CharSequence timestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public CharSequence eventId() {
+        return eventId;
+    }
+
+    @Override
+    public CharSequence source() {
+        return source;
+    }
+
+    @Override
+    public CharSequence destination() {
+        return destination;
+    }
+
+    private static final class Bytes extends ByteArrayOutputStream {
+        Bytes() {
+            super(8 * 1024);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
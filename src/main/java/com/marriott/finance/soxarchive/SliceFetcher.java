@@ -0,0 +1,203 @@
+package com.marriott.finance.soxarchive;
+
+import com.marriott.finance.soxarchive.model.BizeventsResponse;
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.PageCursor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fetches a heavy window as several time slices in parallel.
+ *
+ * Each slice pages through its own sub-range on a separate thread and hands
+ * finished pages to a small bounded queue. The caller hands slice 0, then
+ * slice 1, and so on to the sink, so records reach the archive in timestamp
+ * order while later slices are already being fetched. Memory is bounded by
+ * {@code slices * QUEUED_PAGES_PER_SLICE} pages, each reserved against the
+ * client's {@link MemoryBudget} before it is fetched.
+ */
+public final class SliceFetcher {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(SliceFetcher.class);
+
+    private static final int QUEUED_PAGES_PER_SLICE = 2;
+    private static final long SLICE_STOP_SECONDS = 30;
+
+    /** Marks the end of a slice in its queue. */
+    private static final PageBuffer END_OF_SLICE = new PageBuffer();
+
+    private SliceFetcher() {
+        // utility class
+    }
+
+    public static void fetchSlices(
+            BizeventsClient bizeventsClient,
+            Integration integration,
+            Instant windowStart,
+            Instant windowEnd,
+            int slices,
+            int pageSize,
+            PageBuffer.Sink sink
+    ) throws Exception {
+        fetchSlices(
+                (from, to, after, limit, page) -> bizeventsClient.getData(integration, from, to, after, limit, page),
+                bizeventsClient.memoryBudget(),
+                integration, windowStart, windowEnd, slices, pageSize, sink);
+    }
+
+    static void fetchSlices(
+            PageSource source,
+            MemoryBudget budget,
+            Integration integration,
+            Instant windowStart,
+            Instant windowEnd,
+            int slices,
+            int pageSize,
+            PageBuffer.Sink sink
+    ) throws Exception {
+
+        Duration sliceLength = Duration.between(windowStart, windowEnd).dividedBy(slices);
+        log.info("[{}] Fetching window {} -> {} as {} parallel slices", integration.getId(), windowStart, windowEnd, slices);
+
+        ExecutorService pool = Executors.newFixedThreadPool(slices);
+        AtomicBoolean abandoned = new AtomicBoolean();
+        List<BlockingQueue<PageBuffer>> queues = new ArrayList<>(slices);
+        List<Future<?>> futures = new ArrayList<>(slices);
+
+        try {
+            for (int i = 0; i < slices; i++) {
+                Instant sliceStart = windowStart.plus(sliceLength.multipliedBy(i));
+                Instant sliceEnd = i == slices - 1 ? windowEnd : sliceStart.plus(sliceLength);
+                BlockingQueue<PageBuffer> queue = new ArrayBlockingQueue<>(QUEUED_PAGES_PER_SLICE);
+
+                queues.add(queue);
+                futures.add(pool.submit(() -> {
+                    try {
+                        fetchSlice(source, budget, sliceStart, sliceEnd, pageSize, queue, abandoned);
+                    } finally {
+                        // nobody takes from the queue any more once the window is abandoned
+                        if (!abandoned.get()) {
+                            queue.put(END_OF_SLICE);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            for (int i = 0; i < slices; i++) {
+                BlockingQueue<PageBuffer> queue = queues.get(i);
+                PageBuffer page;
+                while ((page = queue.take()) != END_OF_SLICE) {
+                    sink.accept(page);
+                }
+                awaitSlice(futures.get(i));
+            }
+        } finally {
+            abandoned.set(true);
+            pool.shutdownNow();
+            try {
+                if (!pool.awaitTermination(SLICE_STOP_SECONDS, TimeUnit.SECONDS)) {
+                    log.warn("[{}] Slice fetches still running {} s after the window ended", integration.getId(), SLICE_STOP_SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // give back the reservations of pages that will not be written
+            queues.forEach(SliceFetcher::releasePages);
+        }
+    }
+
+    private static void releasePages(BlockingQueue<PageBuffer> queue) {
+        PageBuffer page;
+        while ((page = queue.poll()) != null) {
+            if (page != END_OF_SLICE) {
+                page.reset();
+            }
+        }
+    }
+
+    private static void fetchSlice(
+            PageSource source,
+            MemoryBudget budget,
+            Instant sliceStart,
+            Instant sliceEnd,
+            int pageSize,
+            BlockingQueue<PageBuffer> queue,
+            AtomicBoolean abandoned
+    ) throws Exception {
+
+        PageCursor cursor = null;
+
+        while (true) {
+            PageBuffer page = new PageBuffer();
+            MemoryBudget.Reservation reservation = budget.reservePage(pageSize);
+            int limit = reservation.records();
+            BizeventsResponse response;
+            try {
+                response = source.fetch(sliceStart, sliceEnd, cursor, limit, page);
+            } catch (Exception e) {
+                reservation.release();
+                throw e;
+            }
+            page.hold(reservation);
+
+            if (page.recordCount() == 0 || abandoned.get()) {
+                page.reset();
+            } else {
+                try {
+                    queue.put(page);
+                } catch (InterruptedException e) {
+                    page.reset();
+                    throw e;
+                }
+                // the consumer may have drained the queue for the last time while this page went in
+                if (abandoned.get()) {
+                    releasePages(queue);
+                }
+            }
+            if (abandoned.get()) {
+                return;
+            }
+
+            if (response == null || response.isLastPage(limit)) {
+                return;
+            }
+
+            cursor = response.next();
+        }
+    }
+
+    private static void awaitSlice(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * One data query of an integration: a page of the records in {@code [from, to)} after the cursor.
+     */
+    @FunctionalInterface
+    interface PageSource {
+        BizeventsResponse fetch(Instant from, Instant to, PageCursor after, int limit, PageBuffer page) throws Exception;
+    }
+}
@@ -2,18 +2,44 @@ package com.marriott.finance.soxarchive.auth;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marriott.finance.soxarchive.http.DynatraceTransport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
-
-public final class DynatraceOAuthClient {
-
-    private final HttpClient httpClient;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a client-credentials access token for the Dynatrace platform.
+ *
+ * Readers take the current token from an atomic reference without locking.
+ * A background thread refreshes it at {@code REFRESH_AT} of its lifetime, so
+ * workers only wait when no usable token exists at all: at start-up, after
+ * the token expired because refreshes kept failing, or after the server
+ * rejected it with 401. Concurrent refresh requests share one token request.
+ */
+public final class DynatraceOAuthClient implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(DynatraceOAuthClient.class);
+
+    private static final double REFRESH_AT = 0.8;
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(5);
+
+    private final DynatraceTransport transport;
     private final ObjectMapper objectMapper;
 
     private final String tokenUrl;
@@ -22,45 +48,111 @@ public final class DynatraceOAuthClient {
     private final String scope;
     private final String resourceUrn;
 
-    private String accessToken;
-    private Instant expiresAt;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicReference<Token> current = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<Token>> refreshing = new AtomicReference<>();
+    private ScheduledFuture<?> scheduledRefresh; // touched by the scheduler thread only
 
     public DynatraceOAuthClient(
+            DynatraceTransport transport,
             String tokenUrl,
             String clientId,
             String clientSecret,
             String scope,
             String resourceUrn
     ) {
-        this.httpClient = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.NORMAL)
-                .build();
+        this.transport = transport;
         this.objectMapper = new ObjectMapper();
         this.tokenUrl = tokenUrl;
         this.clientId = clientId;
         this.clientSecret = clientSecret;
         this.scope = scope;
         this.resourceUrn = resourceUrn;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dynatrace-oauth-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns a valid access token. Blocks only if there is no usable token and one has to be fetched first.
+     */
+    public String getAccessToken() throws Exception {
+
+        Token token = current.get();
+        if (token != null && token.usable()) {
+            return token.value();
+        }
+
+        try {
+            return refresh().get().value();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
     }
 
     /**
-     * Returns a valid access token, refreshing if needed.
+     * The server answered 401 to a request made with {@code rejectedToken}.
+     * Drops that token, unless it was replaced already, and fetches a new one.
      */
-    public synchronized String getAccessToken() throws Exception {
+    public void invalidate(String rejectedToken) {
+        Token token = current.get();
+        if (token != null && token.value().equals(rejectedToken) && current.compareAndSet(token, null)) {
+            log.warn("Access token rejected by Dynatrace, requesting a new one");
+            refresh();
+        }
+    }
 
-        if (accessToken == null || isExpiringSoon()) {
-            refreshToken();
+    /**
+     * Starts a token request unless one is already running; every caller gets the same result.
+     */
+    private CompletableFuture<Token> refresh() {
+        while (true) {
+            CompletableFuture<Token> running = refreshing.get();
+            if (running != null) {
+                return running;
+            }
+            CompletableFuture<Token> started = new CompletableFuture<>();
+            if (refreshing.compareAndSet(null, started)) {
+                scheduler.execute(() -> runRefresh(started));
+                return started;
+            }
         }
+    }
 
-        return accessToken;
+    private void runRefresh(CompletableFuture<Token> result) {
+        try {
+            Token token = requestToken();
+            current.set(token);
+            refreshing.set(null);
+            result.complete(token);
+            scheduleRefresh(token.refreshAt());
+        } catch (Exception e) {
+            refreshing.set(null);
+            result.completeExceptionally(e);
+            Token token = current.get();
+            if (token != null && token.usable()) {
+                log.warn("OAuth token refresh failed, retrying in {} s", RETRY_DELAY.toSeconds(), e);
+                scheduleRefresh(Instant.now().plus(RETRY_DELAY));
+            } else {
+                log.error("OAuth token request failed and no valid token is left", e);
+            }
+        }
     }
 
-    private boolean isExpiringSoon() {
-        return expiresAt == null
-                || Instant.now().isAfter(expiresAt.minusSeconds(60));
+    private void scheduleRefresh(Instant at) {
+        long delayMillis = Math.max(0, Duration.between(Instant.now(), at).toMillis());
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        scheduledRefresh = scheduler.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
     }
 
-    private void refreshToken() throws Exception {
+    private Token requestToken() throws Exception {
 
 
         String body =
@@ -79,8 +171,9 @@ public final class DynatraceOAuthClient {
                 .POST(HttpRequest.BodyPublishers.ofString(body))
                 .build();
 
+        Instant requestedAt = Instant.now();
         HttpResponse<String> response =
-                httpClient.send(
+                transport.send(
                         request,
                         HttpResponse.BodyHandlers.ofString()
                 );
@@ -97,17 +190,34 @@ public final class DynatraceOAuthClient {
         JsonNode json =
                 objectMapper.readTree(response.body());
 
-        this.accessToken =
-                json.path("access_token").asText();
-
         long expiresIn =
                 json.path("expires_in").asLong(300);
 
-        this.expiresAt =
-                Instant.now().plusSeconds(expiresIn);
+        return new Token(
+                json.path("access_token").asText(),
+                requestedAt,
+                requestedAt.plusSeconds(expiresIn)
+        );
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
     }
 
     private static String encode(String value) {
         return URLEncoder.encode(value, StandardCharsets.UTF_8);
     }
+
+    private record Token(String value, Instant issuedAt, Instant expiresAt) {
+
+        boolean usable() {
+            return Instant.now().isBefore(expiresAt.minus(EXPIRY_MARGIN));
+        }
+
+        Instant refreshAt() {
+            long lifetimeMillis = Duration.between(issuedAt, expiresAt).toMillis();
+            return issuedAt.plusMillis((long) (lifetimeMillis * REFRESH_AT));
+        }
+    }
 }
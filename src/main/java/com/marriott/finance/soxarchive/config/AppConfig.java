@@ -1,10 +1,21 @@
 // java
 package com.marriott.finance.soxarchive.config;
 
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
+import com.marriott.finance.soxarchive.model.FieldProjection;
+
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 public final class AppConfig {
 
+    /** smallest part S3 accepts, except for the last one */
+    private static final int MIN_S3_PART_MB = 5;
+    /** each streamed part holds up to three buffers of this size on the heap */
+    private static final int MAX_S3_PART_MB = 64;
+
     private final String tenantName;
 
     private final String oauthTokenUrl;
@@ -16,7 +27,47 @@ public final class AppConfig {
     private final int maxPolls;
     private final long requestTimeoutMillis;
 
+    private final long httpConnectTimeoutMillis;
+    private final int httpExecutorThreads;
+    private final int httpMaxRequestsPerHost;
+    private final int httpKeepAliveSecs;
+    private final boolean httpCompression;
+
     private final int pageSize;
+    private final boolean pipelinedFetch;
+    private final boolean stagedPipeline;
+    private final int pipelineQueueDepth;
+    private final int uploadQueueDepth;
+    private final int backfillParallelism;
+    private final int partSizeEstimatePercent;
+    private final boolean streamingUpload;
+    private final int s3PartSizeMb;
+    private final int compressionThreads;
+    private final ArchiveFormat archiveFormat;
+    private final Map<String, ArchiveFormat> archiveFormatOverrides;
+    private final int compressionLevel;
+    private final Map<String, Integer> compressionLevelOverrides;
+    private final int seekableBlockMb;
+    private final boolean deduplicate;
+    private final int memoryBudgetPercent;
+    private final Set<String> windowCountSkipIntegrations;
+    private final boolean batchedFetch;
+    private final int batchGroupSize;
+    private final boolean backlogPlanner;
+    private final int sliceFanOut;
+    private final Map<String, Integer> sliceFanOutOverrides;
+    private final long sliceMinRecords;
+    private final List<String> fieldsKeep;
+    private final Map<String, List<String>> fieldsKeepOverrides;
+    private final List<String> fieldsRemove;
+    private final Map<String, List<String>> fieldsRemoveOverrides;
+    private final int maxParallelExecutions;
+    private final int queryConcurrencyInitial;
+    private final int queryConcurrencyMax;
+    private final int retryMaxAttempts;
+    private final long retryBaseMillis;
+    private final long retryMaxBackoffMillis;
+    private final boolean hedgedPolls;
 
     private final String S3DataBucketName;
     private final String S3CheckpointBucketName;
@@ -38,7 +89,46 @@ public final class AppConfig {
             String oauthResourceURN,
             int maxPolls,
             long requestTimeoutMillis,
+            long httpConnectTimeoutMillis,
+            int httpExecutorThreads,
+            int httpMaxRequestsPerHost,
+            int httpKeepAliveSecs,
+            boolean httpCompression,
             int pageSize,
+            boolean pipelinedFetch,
+            boolean stagedPipeline,
+            int pipelineQueueDepth,
+            int uploadQueueDepth,
+            int backfillParallelism,
+            int partSizeEstimatePercent,
+            boolean streamingUpload,
+            int s3PartSizeMb,
+            int compressionThreads,
+            ArchiveFormat archiveFormat,
+            Map<String, ArchiveFormat> archiveFormatOverrides,
+            int compressionLevel,
+            Map<String, Integer> compressionLevelOverrides,
+            int seekableBlockMb,
+            boolean deduplicate,
+            int memoryBudgetPercent,
+            Set<String> windowCountSkipIntegrations,
+            boolean batchedFetch,
+            int batchGroupSize,
+            boolean backlogPlanner,
+            int sliceFanOut,
+            Map<String, Integer> sliceFanOutOverrides,
+            long sliceMinRecords,
+            List<String> fieldsKeep,
+            Map<String, List<String>> fieldsKeepOverrides,
+            List<String> fieldsRemove,
+            Map<String, List<String>> fieldsRemoveOverrides,
+            int maxParallelExecutions,
+            int queryConcurrencyInitial,
+            int queryConcurrencyMax,
+            int retryMaxAttempts,
+            long retryBaseMillis,
+            long retryMaxBackoffMillis,
+            boolean hedgedPolls,
             String S3DataBucketName,
             String S3CheckpointBucketName,
             String tempLocalDir,
@@ -59,10 +149,61 @@ public final class AppConfig {
         this.oauthResourceURN = require(oauthResourceURN, "oauthResourceURN");
         this.maxPolls = maxPolls;
         this.requestTimeoutMillis = requestTimeoutMillis;
+        this.httpConnectTimeoutMillis = httpConnectTimeoutMillis;
+        this.httpExecutorThreads = httpExecutorThreads;
+        this.httpMaxRequestsPerHost = httpMaxRequestsPerHost;
+        this.httpKeepAliveSecs = httpKeepAliveSecs;
+        this.httpCompression = httpCompression;
         this.pageSize = pageSize;
+        this.pipelinedFetch = pipelinedFetch;
+        this.stagedPipeline = stagedPipeline;
+        this.pipelineQueueDepth = pipelineQueueDepth;
+        this.uploadQueueDepth = uploadQueueDepth;
+        this.backfillParallelism = backfillParallelism;
+        this.partSizeEstimatePercent = partSizeEstimatePercent;
+        this.streamingUpload = streamingUpload;
+        if (s3PartSizeMb < MIN_S3_PART_MB || s3PartSizeMb > MAX_S3_PART_MB) {
+            throw new IllegalArgumentException("S3_PART_SIZE_MB must be between " + MIN_S3_PART_MB
+                    + " and " + MAX_S3_PART_MB + ", got " + s3PartSizeMb);
+        }
+        this.s3PartSizeMb = s3PartSizeMb;
+        this.compressionThreads = compressionThreads;
+        this.archiveFormat = require(archiveFormat, "archiveFormat");
+        this.archiveFormatOverrides = Map.copyOf(require(archiveFormatOverrides, "archiveFormatOverrides"));
+        this.compressionLevel = compressionLevel;
+        this.compressionLevelOverrides = Map.copyOf(require(compressionLevelOverrides, "compressionLevelOverrides"));
+        this.seekableBlockMb = seekableBlockMb;
+        this.deduplicate = deduplicate;
+        this.memoryBudgetPercent = memoryBudgetPercent;
+        this.windowCountSkipIntegrations = Set.copyOf(require(windowCountSkipIntegrations, "windowCountSkipIntegrations"));
+        this.batchedFetch = batchedFetch;
+        this.batchGroupSize = batchGroupSize;
+        this.backlogPlanner = backlogPlanner;
+        this.sliceFanOut = sliceFanOut;
+        this.sliceFanOutOverrides = Map.copyOf(require(sliceFanOutOverrides, "sliceFanOutOverrides"));
+        this.sliceMinRecords = sliceMinRecords;
+        this.fieldsKeep = List.copyOf(require(fieldsKeep, "fieldsKeep"));
+        this.fieldsKeepOverrides = Map.copyOf(require(fieldsKeepOverrides, "fieldsKeepOverrides"));
+        this.fieldsRemove = List.copyOf(require(fieldsRemove, "fieldsRemove"));
+        this.fieldsRemoveOverrides = Map.copyOf(require(fieldsRemoveOverrides, "fieldsRemoveOverrides"));
+        // fail at startup rather than on the first data query
+        fieldProjection("");
+        fieldsKeepOverrides.keySet().forEach(this::fieldProjection);
+        fieldsRemoveOverrides.keySet().forEach(this::fieldProjection);
+        checkCompressionLevel("");
+        archiveFormatOverrides.keySet().forEach(this::checkCompressionLevel);
+        compressionLevelOverrides.keySet().forEach(this::checkCompressionLevel);
+        this.maxParallelExecutions = maxParallelExecutions;
+        this.queryConcurrencyInitial = queryConcurrencyInitial;
+        this.queryConcurrencyMax = queryConcurrencyMax;
+        this.retryMaxAttempts = retryMaxAttempts;
+        this.retryBaseMillis = retryBaseMillis;
+        this.retryMaxBackoffMillis = retryMaxBackoffMillis;
+        this.hedgedPolls = hedgedPolls;
         this.S3DataBucketName = require(S3DataBucketName, "S3DataBucketName");
         this.S3CheckpointBucketName = require(S3CheckpointBucketName, "S3CheckpointBucketName");
-        this.tempLocalDir = require(tempLocalDir, "tempLocalDir");
+        // streamed parts never touch local disk
+        this.tempLocalDir = streamingUpload ? tempLocalDir : require(tempLocalDir, "tempLocalDir");
         this.timeWaitAfterUploadSecs = timeWaitAfterUploadSecs;
         this.maxTaskDurationHours = maxTaskDurationHours;
         this.useLocalstack = useLocalstack;
@@ -104,10 +245,270 @@ public final class AppConfig {
         return requestTimeoutMillis;
     }
 
+    public long httpConnectTimeoutMillis() {
+        return httpConnectTimeoutMillis;
+    }
+
+    public int httpExecutorThreads() {
+        return httpExecutorThreads;
+    }
+
+    public int httpMaxRequestsPerHost() {
+        return httpMaxRequestsPerHost;
+    }
+
+    public int httpKeepAliveSecs() {
+        return httpKeepAliveSecs;
+    }
+
+    /**
+     * Ask Grail for gzip/deflate encoded responses.
+     */
+    public boolean httpCompression() {
+        return httpCompression;
+    }
+
     public int pageSize() {
         return pageSize;
     }
 
+    /**
+     * When true the next page's query is started before the current page is written.
+     */
+    public boolean pipelinedFetch() {
+        return pipelinedFetch;
+    }
+
+    /**
+     * Run fetch, compression and upload of an integration as separate stages; implies pipelined fetch.
+     */
+    public boolean stagedPipeline() {
+        return stagedPipeline;
+    }
+
+    /**
+     * Fetched pages waiting for compression before the fetch stage blocks.
+     */
+    public int pipelineQueueDepth() {
+        return pipelineQueueDepth;
+    }
+
+    /**
+     * Finished parts waiting for upload before the compress stage, or a part
+     * writer uploading in the background, blocks.
+     */
+    public int uploadQueueDepth() {
+        return uploadQueueDepth;
+    }
+
+    /**
+     * Windows of one integration archived concurrently while it is catching up; 1 processes them one by one.
+     */
+    public int backfillParallelism() {
+        return backfillParallelism;
+    }
+
+    /**
+     * When above zero, a part rolls once this percentage of its uncompressed bytes
+     * reaches the part limit, instead of on the compressed bytes written so far.
+     */
+    public int partSizeEstimatePercent() {
+        return partSizeEstimatePercent;
+    }
+
+    /**
+     * Streams parts straight into S3 multipart uploads instead of writing them to TEMP_LOCAL_DIR first.
+     */
+    public boolean streamingUpload() {
+        return streamingUpload;
+    }
+
+    /**
+     * Size of the in-memory buffers of a streaming upload; each is sent as one multipart part.
+     */
+    public int s3PartSizeMb() {
+        return s3PartSizeMb;
+    }
+
+    /**
+     * Threads deflating the blocks of one archive part in parallel; 1 compresses on the writing thread.
+     */
+    public int compressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Container and codec of this integration's archive parts.
+     */
+    public ArchiveFormat archiveFormat(String icNumber) {
+        return archiveFormatOverrides.getOrDefault(icNumber.toUpperCase(), archiveFormat);
+    }
+
+    public Map<String, ArchiveFormat> archiveFormatOverrides() {
+        return archiveFormatOverrides;
+    }
+
+    /**
+     * Compression level for this integration's codec; -1 uses the codec's default.
+     */
+    public int compressionLevel(String icNumber) {
+        return compressionLevelOverrides.getOrDefault(icNumber.toUpperCase(), compressionLevel);
+    }
+
+    public Map<String, Integer> compressionLevelOverrides() {
+        return compressionLevelOverrides;
+    }
+
+    private void checkCompressionLevel(String icNumber) {
+        try {
+            archiveFormat(icNumber).checkLevel(compressionLevel(icNumber));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    (icNumber.isEmpty() ? "COMPRESSION_LEVEL" : "Integration " + icNumber) + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * When above zero, parts are written as independently compressed blocks of
+     * about this many uncompressed MB, with a block index uploaded next to each part.
+     */
+    public int seekableBlockMb() {
+        return seekableBlockMb;
+    }
+
+    /**
+     * Drop events that reach the archive twice within a window, by fingerprint of their identity.
+     */
+    public boolean deduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * Share of the maximum heap that buffered pages may hold together; 0 for no limit.
+     * Not counted against it: with STREAMING_UPLOAD each open part holds up to three
+     * S3_PART_SIZE_MB upload buffers, so leave that much more heap per worker.
+     */
+    public int memoryBudgetPercent() {
+        return memoryBudgetPercent;
+    }
+
+    /**
+     * True for integrations known to have data every hour, whose windows are
+     * fetched directly without an initial count query.
+     */
+    public boolean skipWindowCount(String icNumber) {
+        return windowCountSkipIntegrations.contains(icNumber.toUpperCase());
+    }
+
+    public Set<String> windowCountSkipIntegrations() {
+        return windowCountSkipIntegrations;
+    }
+
+    /**
+     * When true integrations are fetched in groups, one DQL scan per group and window.
+     */
+    public boolean batchedFetch() {
+        return batchedFetch;
+    }
+
+    /**
+     * Maximum integrations per batched scan; 0 puts all integrations with the same
+     * field projection in one group.
+     */
+    public int batchGroupSize() {
+        return batchGroupSize;
+    }
+
+    /**
+     * When true one histogram query plans the non-empty windows of every integration up front.
+     */
+    public boolean backlogPlanner() {
+        return backlogPlanner;
+    }
+
+    /**
+     * Maximum number of time slices of one window fetched in parallel for this integration.
+     */
+    public int sliceFanOut(String icNumber) {
+        return sliceFanOutOverrides.getOrDefault(icNumber.toUpperCase(), sliceFanOut);
+    }
+
+    public Map<String, Integer> sliceFanOutOverrides() {
+        return sliceFanOutOverrides;
+    }
+
+    /**
+     * Windows are only sliced when each slice would still hold at least this many records.
+     */
+    public long sliceMinRecords() {
+        return sliceMinRecords;
+    }
+
+    public List<String> fieldsKeep() {
+        return fieldsKeep;
+    }
+
+    public Map<String, List<String>> fieldsKeepOverrides() {
+        return fieldsKeepOverrides;
+    }
+
+    public List<String> fieldsRemove() {
+        return fieldsRemove;
+    }
+
+    public Map<String, List<String>> fieldsRemoveOverrides() {
+        return fieldsRemoveOverrides;
+    }
+
+    /**
+     * Fields archived for an integration: its own keep/remove lists where
+     * configured, the global lists otherwise.
+     */
+    public FieldProjection fieldProjection(String icNumber) {
+        String key = icNumber.toUpperCase();
+        return new FieldProjection(
+                fieldsKeepOverrides.getOrDefault(key, fieldsKeep),
+                fieldsRemoveOverrides.getOrDefault(key, fieldsRemove)
+        );
+    }
+
+    /**
+     * Number of integration workers; Grail load is governed by the query limiter, not by this.
+     */
+    public int maxParallelExecutions() {
+        return maxParallelExecutions;
+    }
+
+    public int queryConcurrencyInitial() {
+        return queryConcurrencyInitial;
+    }
+
+    public int queryConcurrencyMax() {
+        return queryConcurrencyMax;
+    }
+
+    /**
+     * Retries allowed per Grail query for transient failures before the error is surfaced.
+     */
+    public int retryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public long retryBaseMillis() {
+        return retryBaseMillis;
+    }
+
+    public long retryMaxBackoffMillis() {
+        return retryMaxBackoffMillis;
+    }
+
+    /**
+     * Send a second poll when one takes far longer than the query usually does.
+     */
+    public boolean hedgedPolls() {
+        return hedgedPolls;
+    }
+
     public String oauthResourceURN() {
         return oauthResourceURN;
     }
@@ -120,6 +521,9 @@ public final class AppConfig {
         return S3CheckpointBucketName;
     }
 
+    /**
+     * Directory of the temporary part files; may be null when parts are streamed to S3.
+     */
     public String getTempLocalDir() {
         return tempLocalDir;
     }
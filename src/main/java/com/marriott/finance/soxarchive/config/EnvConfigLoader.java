@@ -1,15 +1,27 @@
 // java
 package com.marriott.finance.soxarchive.config;
 
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public final class EnvConfigLoader {
 
     private EnvConfigLoader() {}
 
     public static AppConfig load() {
+        return load(System.getenv());
+    }
 
-        Map<String, String> env = System.getenv();
+    /**
+     * Builds the configuration from the given variables instead of the process environment.
+     */
+    public static AppConfig load(Map<String, String> env) {
 
         String tenantName = required(env, "TENANT_NAME");
 
@@ -20,31 +32,71 @@ public final class EnvConfigLoader {
         String oauthResourceURN = required(env, "OAUTH_RESOURCE_URN");
 
         int pageSize = integer(env, "BIZEVENTS_PAGE_SIZE", 5000);
+        boolean pipelinedFetch = bool(env, "PIPELINED_FETCH", false);
+        boolean stagedPipeline = bool(env, "STAGED_PIPELINE", false);
+        int pipelineQueueDepth = integer(env, "PIPELINE_QUEUE_DEPTH", 4);
+        int uploadQueueDepth = integer(env, "UPLOAD_QUEUE_DEPTH", 2);
+        int backfillParallelism = integer(env, "BACKFILL_PARALLELISM", 1);
+        int partSizeEstimatePercent = integer(env, "PART_SIZE_ESTIMATE_PERCENT", 0);
+        boolean streamingUpload = bool(env, "STREAMING_UPLOAD", false);
+        int s3PartSizeMb = integer(env, "S3_PART_SIZE_MB", 16);
+        int compressionThreads = integer(env, "COMPRESSION_THREADS", 1);
+        ArchiveFormat archiveFormat = ArchiveFormat.parse(env.getOrDefault("ARCHIVE_FORMAT", "zip"));
+        Map<String, ArchiveFormat> archiveFormatOverrides = archiveFormatMap(env, "ARCHIVE_FORMAT_OVERRIDES");
+        int compressionLevel = integer(env, "COMPRESSION_LEVEL", -1);
+        Map<String, Integer> compressionLevelOverrides = integerMap(env, "COMPRESSION_LEVEL_OVERRIDES");
+        int seekableBlockMb = integer(env, "SEEKABLE_BLOCK_MB", 0);
+        boolean deduplicate = bool(env, "DEDUPLICATE", false);
+        int memoryBudgetPercent = integer(env, "MEMORY_BUDGET_PERCENT", 0);
+        Set<String> windowCountSkipIntegrations = upperCaseSet(env, "WINDOW_COUNT_SKIP_INTEGRATIONS");
+        boolean batchedFetch = bool(env, "BATCHED_FETCH", false);
+        int batchGroupSize = integer(env, "BATCH_GROUP_SIZE", 0);
+        boolean backlogPlanner = bool(env, "BACKLOG_PLANNER", false);
+        int sliceFanOut = integer(env, "SLICE_FAN_OUT", 1);
+        Map<String, Integer> sliceFanOutOverrides = integerMap(env, "SLICE_FAN_OUT_OVERRIDES");
+        long sliceMinRecords = integer(env, "SLICE_MIN_RECORDS", 100000);
+        List<String> fieldsKeep = list(env, "FIELDS_KEEP");
+        Map<String, List<String>> fieldsKeepOverrides = listMap(env, "FIELDS_KEEP_OVERRIDES");
+        List<String> fieldsRemove = list(env, "FIELDS_REMOVE");
+        Map<String, List<String>> fieldsRemoveOverrides = listMap(env, "FIELDS_REMOVE_OVERRIDES");
+        int maxParallelExecutions = integer(env, "MAX_PARALLEL_EXECUTIONS", 4);
+        int queryConcurrencyInitial = integer(env, "QUERY_CONCURRENCY_INITIAL", 4);
+        int queryConcurrencyMax = integer(env, "QUERY_CONCURRENCY_MAX", 32);
+        int retryMaxAttempts = integer(env, "RETRY_MAX_ATTEMPTS", 5);
+        long retryBaseMillis = integer(env, "RETRY_BASE_MILLIS", 500);
+        long retryMaxBackoffMillis = integer(env, "RETRY_MAX_BACKOFF_MILLIS", 30000);
+        boolean hedgedPolls = bool(env, "HEDGED_POLLS", false);
 
         int maxPolls = integer(env, "MAX_POLLS", 100);
         long requestTimeoutMillis = integer(env, "REQUEST_TIMEOUT_MILLIS", 300000);
 
+        long httpConnectTimeoutMillis = integer(env, "HTTP_CONNECT_TIMEOUT_MILLIS", 10000);
+        int httpExecutorThreads = integer(env, "HTTP_EXECUTOR_THREADS", 8);
+        int httpMaxRequestsPerHost = integer(env, "HTTP_MAX_REQUESTS_PER_HOST", 32);
+        int httpKeepAliveSecs = integer(env, "HTTP_KEEPALIVE_SECS", 300);
+        boolean httpCompression = bool(env, "HTTP_COMPRESSION", true);
+
         String S3DataBucketName = required(env, "S3_DATA_BUCKET");
         
         String S3CheckpointBucketName = required(env, "S3_CHECKPOINT_BUCKET");
-        String tempLocalDir = required(env, "TEMP_LOCAL_DIR");
+        String tempLocalDir = streamingUpload ? optional(env, "TEMP_LOCAL_DIR") : required(env, "TEMP_LOCAL_DIR");
         int timeWaitAfterUploadSecs = integer(env, "TIME_WAIT_AFTER_UPLOAD_SECS", 60);
         int maxTaskDurationHours = integer(env, "MAX_TASK_DURATION_HOURS", 24);
         
         
-        boolean useLocalstack  =  System.getenv("USE_LOCALSTACK") != null ?
-				System.getenv("USE_LOCALSTACK").equalsIgnoreCase("true") : false;
+        boolean useLocalstack  =  env.get("USE_LOCALSTACK") != null ?
+				env.get("USE_LOCALSTACK").equalsIgnoreCase("true") : false;
         
-        String s3Endpoint =  System.getenv("S3_ENDPOINT");
+        String s3Endpoint =  env.get("S3_ENDPOINT");
         
-        String assumeArchiveRoleArn = System.getenv("ASSUME_ARCHIVE_ROLE_ARN");
-        String assumeCheckpointRoleArn = System.getenv("ASSUME_CHECKPOINT_ROLE_ARN");
+        String assumeArchiveRoleArn = env.get("ASSUME_ARCHIVE_ROLE_ARN");
+        String assumeCheckpointRoleArn = env.get("ASSUME_CHECKPOINT_ROLE_ARN");
         
         if(useLocalstack) {
         	s3Endpoint = "http://localhost:4566";
         }
         
-        String awsRegion = System.getenv("AWS_REGION") != null ? System.getenv("AWS_REGION")  : "us-east-1";
+        String awsRegion = env.get("AWS_REGION") != null ? env.get("AWS_REGION")  : "us-east-1";
 
         return new AppConfig(
                 tenantName,
@@ -55,7 +107,46 @@ public final class EnvConfigLoader {
                 oauthResourceURN,
                 maxPolls,
                 requestTimeoutMillis,
+                httpConnectTimeoutMillis,
+                httpExecutorThreads,
+                httpMaxRequestsPerHost,
+                httpKeepAliveSecs,
+                httpCompression,
                 pageSize,
+                pipelinedFetch,
+                stagedPipeline,
+                pipelineQueueDepth,
+                uploadQueueDepth,
+                backfillParallelism,
+                partSizeEstimatePercent,
+                streamingUpload,
+                s3PartSizeMb,
+                compressionThreads,
+                archiveFormat,
+                archiveFormatOverrides,
+                compressionLevel,
+                compressionLevelOverrides,
+                seekableBlockMb,
+                deduplicate,
+                memoryBudgetPercent,
+                windowCountSkipIntegrations,
+                batchedFetch,
+                batchGroupSize,
+                backlogPlanner,
+                sliceFanOut,
+                sliceFanOutOverrides,
+                sliceMinRecords,
+                fieldsKeep,
+                fieldsKeepOverrides,
+                fieldsRemove,
+                fieldsRemoveOverrides,
+                maxParallelExecutions,
+                queryConcurrencyInitial,
+                queryConcurrencyMax,
+                retryMaxAttempts,
+                retryBaseMillis,
+                retryMaxBackoffMillis,
+                hedgedPolls,
                 S3DataBucketName,
                 S3CheckpointBucketName,
                 tempLocalDir,
@@ -79,6 +170,11 @@ public final class EnvConfigLoader {
         return value;
     }
 
+    private static String optional(Map<String, String> env, String key) {
+        String value = env.get(key);
+        return value == null || value.isBlank() ? null : value;
+    }
+
     private static int integer(
             Map<String, String> env,
             String key,
@@ -87,5 +183,121 @@ public final class EnvConfigLoader {
         String value = env.get(key);
         return value == null ? defaultValue : Integer.parseInt(value);
     }
-}
 
+    private static boolean bool(
+            Map<String, String> env,
+            String key,
+            boolean defaultValue
+    ) {
+        String value = env.get(key);
+        return value == null ? defaultValue : value.equalsIgnoreCase("true");
+    }
+
+    /**
+     * Parses a comma separated list, e.g. "IC-01,IC-02".
+     */
+    private static Set<String> upperCaseSet(
+            Map<String, String> env,
+            String key
+    ) {
+        String value = env.get(key);
+        if (value == null || value.isBlank()) {
+            return Set.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(String::toUpperCase)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Parses a comma separated list of field names, e.g. "dt.*,event.provider"; case is kept.
+     */
+    private static List<String> list(
+            Map<String, String> env,
+            String key
+    ) {
+        String value = env.get(key);
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Parses comma separated key:list pairs with '|' between list items,
+     * e.g. "IC-01:dt.*|event.provider,IC-06:dt.*".
+     */
+    private static Map<String, List<String>> listMap(
+            Map<String, String> env,
+            String key
+    ) {
+        String value = env.get(key);
+        Map<String, List<String>> result = new HashMap<>();
+        if (value == null || value.isBlank()) {
+            return result;
+        }
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) {
+                throw new IllegalStateException(
+                        "Invalid entry '" + entry + "' in environment variable: " + key
+                );
+            }
+            result.put(parts[0].trim().toUpperCase(), Arrays.stream(parts[1].split("\\|"))
+                    .map(String::trim)
+                    .filter(s -> !s.isEmpty())
+                    .collect(Collectors.toList()));
+        }
+        return result;
+    }
+
+    /**
+     * Parses comma separated key:value pairs, e.g. "IC-01:4,IC-06:8".
+     */
+    private static Map<String, Integer> integerMap(
+            Map<String, String> env,
+            String key
+    ) {
+        Map<String, Integer> result = new HashMap<>();
+        stringMap(env, key).forEach((icNumber, value) -> result.put(icNumber, Integer.parseInt(value)));
+        return result;
+    }
+
+    private static Map<String, ArchiveFormat> archiveFormatMap(
+            Map<String, String> env,
+            String key
+    ) {
+        Map<String, ArchiveFormat> result = new HashMap<>();
+        stringMap(env, key).forEach((icNumber, value) -> result.put(icNumber, ArchiveFormat.parse(value)));
+        return result;
+    }
+
+    /**
+     * Parses {@code IC1:value,IC2:value}, keyed by upper-case IC number.
+     */
+    private static Map<String, String> stringMap(
+            Map<String, String> env,
+            String key
+    ) {
+        String value = env.get(key);
+        Map<String, String> result = new HashMap<>();
+        if (value == null || value.isBlank()) {
+            return result;
+        }
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 2) {
+                throw new IllegalStateException(
+                        "Invalid entry '" + entry + "' in environment variable: " + key
+                );
+            }
+            result.put(parts[0].trim().toUpperCase(), parts[1].trim());
+        }
+        return result;
+    }
+}
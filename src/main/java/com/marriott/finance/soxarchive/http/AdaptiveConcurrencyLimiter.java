@@ -0,0 +1,172 @@
+package com.marriott.finance.soxarchive.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide AIMD limit on the number of Grail queries in flight.
+ *
+ * Each healthy completion raises the limit by {@code 1/limit} (about one extra
+ * query per round of completions). An overload response (429/503) halves it
+ * and pauses new queries for the server's Retry-After; a latency spike, i.e.
+ * a query taking more than {@code SPIKE_FACTOR} times its usual latency, cuts
+ * it by a smaller factor. Decreases are applied at most once per cooldown so
+ * one burst of rejections does not collapse the limit to the minimum.
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private static final int MIN_LIMIT = 1;
+    private static final double OVERLOAD_DECREASE = 0.5;
+    private static final double SPIKE_DECREASE = 0.8;
+    private static final double SPIKE_FACTOR = 2.0;
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int peakInFlight;
+    private long pausedUntilNanos;
+    private long lastDecreaseNanos;
+    private long overloads;
+    private long spikes;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit) {
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.limit = Math.max(MIN_LIMIT, Math.min(initialLimit, this.maxLimit));
+        this.lastDecreaseNanos = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+    }
+
+    /**
+     * Blocks until a query may start: the server is not asking us to back off
+     * and fewer than {@code limit} queries are in flight.
+     */
+    public Permit acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long pause = pausedUntilNanos - System.nanoTime();
+                if (pause > 0) {
+                    changed.awaitNanos(pause);
+                } else if (inFlight >= (int) limit) {
+                    changed.await();
+                } else {
+                    break;
+                }
+            }
+            inFlight++;
+            peakInFlight = Math.max(peakInFlight, inFlight);
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param expectedMillis usual latency of this kind of query, or a negative value if unknown
+     */
+    public void onSuccess(long latencyMillis, long expectedMillis) {
+        lock.lock();
+        try {
+            if (expectedMillis > 0 && latencyMillis > SPIKE_FACTOR * expectedMillis) {
+                if (decrease(SPIKE_DECREASE)) {
+                    spikes++;
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The server rejected a request with 429/503; no new query starts before {@code retryAfterMillis}.
+     */
+    public void onOverload(long retryAfterMillis) {
+        lock.lock();
+        try {
+            overloads++;
+            decrease(OVERLOAD_DECREASE);
+            pausedUntilNanos = Math.max(pausedUntilNanos,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis));
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean decrease(double factor) {
+        long now = System.nanoTime();
+        if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+            return false;
+        }
+        lastDecreaseNanos = now;
+        double previous = limit;
+        limit = Math.max(MIN_LIMIT, limit * factor);
+        log.info("Grail query concurrency limit lowered {} -> {}", (int) previous, (int) limit);
+        return true;
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void logStatistics() {
+        lock.lock();
+        try {
+            log.info(
+                    "Grail query limiter: limit={}, max={}, peakInFlight={}, overloads={}, latencySpikes={}",
+                    (int) limit,
+                    maxLimit,
+                    peakInFlight,
+                    overloads,
+                    spikes
+            );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One admitted query. {@link #release()} may be called more than once.
+     */
+    public final class Permit {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimiter.this.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.marriott.finance.soxarchive.http;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Default TLS context that counts the engines it creates.
+ *
+ * The JDK HttpClient creates one {@link SSLEngine} per new TLS connection, so
+ * the counter is the number of connections (and handshakes) opened.
+ */
+final class CountingSSLContext extends SSLContext {
+
+    private CountingSSLContext(CountingSpi spi, SSLContext delegate) {
+        super(spi, delegate.getProvider(), delegate.getProtocol());
+    }
+
+    static CountingSSLContext create(AtomicLong counter) throws NoSuchAlgorithmException {
+        SSLContext delegate = SSLContext.getDefault();
+        return new CountingSSLContext(new CountingSpi(delegate, counter), delegate);
+    }
+
+    private static final class CountingSpi extends SSLContextSpi {
+
+        private final SSLContext delegate;
+        private final AtomicLong counter;
+
+        private CountingSpi(SSLContext delegate, AtomicLong counter) {
+            this.delegate = delegate;
+            this.counter = counter;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+            delegate.init(km, tm, sr);
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            counter.incrementAndGet();
+            return delegate.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            counter.incrementAndGet();
+            return delegate.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+    }
+}
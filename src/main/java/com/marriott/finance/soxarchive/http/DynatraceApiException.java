@@ -0,0 +1,37 @@
+package com.marriott.finance.soxarchive.http;
+
+/**
+ * A Dynatrace platform request answered with a non-success status.
+ * Carries what {@link RetryPolicy} needs to classify the failure.
+ */
+public class DynatraceApiException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String operation;
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    /**
+     * @param operation        request that failed, e.g. {@code execute} or {@code poll}
+     * @param retryAfterMillis server's Retry-After, or the default when it sent none
+     */
+    public DynatraceApiException(String operation, int statusCode, long retryAfterMillis, String body) {
+        super("DQL " + operation + " failed. Status=" + statusCode + ", body=" + body);
+        this.operation = operation;
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String operation() {
+        return operation;
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    public long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
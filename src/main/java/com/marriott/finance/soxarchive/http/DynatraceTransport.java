@@ -0,0 +1,240 @@
+package com.marriott.finance.soxarchive.http;
+
+import com.marriott.finance.soxarchive.config.AppConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The single HTTP client shared by every Dynatrace call (OAuth and Grail).
+ *
+ * Requests are multiplexed over HTTP/2 where the server supports it, and
+ * connections are kept alive between requests, so workers reuse the same
+ * TLS connections instead of each paying for their own handshakes, pools and
+ * selector threads. A semaphore per host bounds the number of requests in
+ * flight against it.
+ *
+ * Grail responses may be gzip or deflate encoded; {@link #decodedBody} inflates
+ * them while the caller parses, and counts bytes before and after decoding.
+ */
+public final class DynatraceTransport implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(DynatraceTransport.class);
+
+    private static final String KEEPALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+    private static final String IDENTITY = "identity";
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final int maxRequestsPerHost;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong http2Responses = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong bodyBytesReceived = new AtomicLong();
+    private final AtomicLong bodyBytesDecoded = new AtomicLong();
+
+    public DynatraceTransport(AppConfig config) throws Exception {
+
+        // read once by the JDK connection pool, so it must be set before the first client is built
+        if (System.getProperty(KEEPALIVE_PROPERTY) == null) {
+            System.setProperty(KEEPALIVE_PROPERTY, String.valueOf(config.httpKeepAliveSecs()));
+        }
+
+        this.maxRequestsPerHost = config.httpMaxRequestsPerHost();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(config.httpExecutorThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "dynatrace-http-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(config.httpConnectTimeoutMillis()))
+                .sslContext(CountingSSLContext.create(connectionsOpened))
+                .executor(executor)
+                .build();
+    }
+
+    public <T> HttpResponse<T> send(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) throws IOException, InterruptedException {
+
+        Semaphore permits = permitsFor(request);
+        permits.acquire();
+        started();
+        try {
+            return counted(httpClient.send(request, bodyHandler));
+        } finally {
+            finished();
+            permits.release();
+        }
+    }
+
+    /**
+     * Sends asynchronously. The caller blocks only while its host is at the
+     * request limit; the permit is returned once the response headers arrive.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) throws InterruptedException {
+
+        Semaphore permits = permitsFor(request);
+        permits.acquire();
+        started();
+        try {
+            return httpClient.sendAsync(request, bodyHandler)
+                    .thenApply(this::counted)
+                    .whenComplete((response, error) -> {
+                        finished();
+                        permits.release();
+                    });
+        } catch (RuntimeException e) {
+            finished();
+            permits.release();
+            throw e;
+        }
+    }
+
+    private Semaphore permitsFor(HttpRequest request) {
+        String host = request.uri().getHost();
+        return hostPermits.computeIfAbsent(host, h -> new Semaphore(maxRequestsPerHost, true));
+    }
+
+    private void started() {
+        requests.incrementAndGet();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    }
+
+    private void finished() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * The response body, inflated on the fly according to its Content-Encoding.
+     * Bytes are counted as they are read, on the wire and after decoding.
+     */
+    public InputStream decodedBody(HttpResponse<InputStream> response) throws IOException {
+        String encoding = response.headers()
+                .firstValue("Content-Encoding")
+                .orElse(IDENTITY)
+                .trim()
+                .toLowerCase(Locale.ROOT);
+
+        InputStream wire = new CountingInputStream(response.body(), bodyBytesReceived);
+        InputStream decoded;
+        try {
+            decoded = switch (encoding) {
+                case IDENTITY -> wire;
+                case "gzip", "x-gzip" -> new GZIPInputStream(wire, DECODE_BUFFER_SIZE);
+                case "deflate" -> inflating(wire);
+                default -> throw new IOException("Unsupported Content-Encoding: " + encoding);
+            };
+        } catch (IOException e) {
+            wire.close();
+            throw e;
+        }
+        return new CountingInputStream(decoded, bodyBytesDecoded);
+    }
+
+    /**
+     * HTTP deflate is meant to be zlib-wrapped, but some servers send raw deflate;
+     * the first two bytes tell them apart.
+     */
+    private static InputStream inflating(InputStream wire) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(wire, 2);
+        byte[] header = in.readNBytes(2);
+        in.unread(header);
+        boolean zlib = header.length == 2
+                && (header[0] & 0x0F) == 8
+                && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+        return new InflaterInputStream(in, new Inflater(!zlib), DECODE_BUFFER_SIZE);
+    }
+
+    private <T> HttpResponse<T> counted(HttpResponse<T> response) {
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.incrementAndGet();
+        }
+        return response;
+    }
+
+    public long connectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    /**
+     * Share of requests that did not need a new TLS connection.
+     */
+    public double connectionReuseRatio() {
+        long total = requests.get();
+        return total == 0 ? 0.0 : Math.max(0.0, 1.0 - (double) connectionsOpened.get() / total);
+    }
+
+    /**
+     * Response body bytes read from the network, before decoding.
+     */
+    public long bodyBytesReceived() {
+        return bodyBytesReceived.get();
+    }
+
+    /**
+     * Response body bytes handed to parsers, after decoding.
+     */
+    public long bodyBytesDecoded() {
+        return bodyBytesDecoded.get();
+    }
+
+    public void logStatistics() {
+        long received = bodyBytesReceived.get();
+        long decoded = bodyBytesDecoded.get();
+        log.info(
+                "Dynatrace transport: requests={}, http2Responses={}, connectionsOpened={}, reuseRatio={}, peakInFlight={}, "
+                        + "bodyBytesReceived={}, bodyBytesDecoded={}, compressionRatio={}",
+                requests.get(),
+                http2Responses.get(),
+                connectionsOpened.get(),
+                String.format("%.3f", connectionReuseRatio()),
+                peakInFlight.get(),
+                received,
+                decoded,
+                String.format("%.1f", received == 0 ? 0.0 : (double) decoded / received)
+        );
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,181 @@
+package com.marriott.finance.soxarchive.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which Dynatrace failures are worth another attempt and how long to wait first.
+ *
+ * Network errors, timeouts and 5xx answers are transient and retried after an
+ * exponential backoff with full jitter, so workers that failed together do not
+ * come back together. 429/503 are overload signals and wait for Retry-After.
+ * A poll answered with 404/410 means the request token is gone and the query
+ * has to be executed again; a 401 is retried with a new access token. Every
+ * call gets its own {@link Budget}, so a query that keeps failing surfaces
+ * its error instead of retrying for the whole run.
+ */
+public final class RetryPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+    private static final int MAX_OVERLOAD_RETRIES = 10;
+    private static final int MAX_BACKOFF_SHIFT = 20;
+
+    public enum Failure {
+        /** network error, timeout or 5xx: retry after a jittered backoff */
+        TRANSIENT,
+        /** 429/503: retry after the server's Retry-After */
+        OVERLOADED,
+        /** the request token of a running query is no longer known: execute again */
+        TOKEN_EXPIRED,
+        /** 401: the access token was rejected; retry with a new one */
+        UNAUTHORIZED,
+        /** anything else: surface the error */
+        FATAL
+    }
+
+    private final int maxAttempts;
+    private final long baseMillis;
+    private final long maxBackoffMillis;
+
+    private final AtomicLong transientRetries = new AtomicLong();
+    private final AtomicLong overloadRetries = new AtomicLong();
+    private final AtomicLong reexecutions = new AtomicLong();
+    private final AtomicLong reauthentications = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    public RetryPolicy(int maxAttempts, long baseMillis, long maxBackoffMillis) {
+        this.maxAttempts = Math.max(0, maxAttempts);
+        this.baseMillis = Math.max(1, baseMillis);
+        this.maxBackoffMillis = Math.max(this.baseMillis, maxBackoffMillis);
+    }
+
+    public Failure classify(Throwable error) {
+        Throwable e = error;
+        while ((e instanceof ExecutionException || e instanceof CompletionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof DynatraceApiException api) {
+            return classify(api.operation(), api.statusCode());
+        }
+        if (e instanceof IOException) {
+            // includes connect/request timeouts and connections reset mid-response
+            return Failure.TRANSIENT;
+        }
+        return Failure.FATAL;
+    }
+
+    private static Failure classify(String operation, int statusCode) {
+        if (statusCode == 429 || statusCode == 503) {
+            return Failure.OVERLOADED;
+        }
+        if (statusCode == 401) {
+            return Failure.UNAUTHORIZED;
+        }
+        if ("poll".equals(operation) && (statusCode == 404 || statusCode == 410)) {
+            return Failure.TOKEN_EXPIRED;
+        }
+        if (statusCode == 408 || statusCode >= 500) {
+            return Failure.TRANSIENT;
+        }
+        return Failure.FATAL;
+    }
+
+    /**
+     * Full jitter: a uniform wait between zero and {@code base * 2^attempt}, capped.
+     *
+     * @param attempt retries already made by the call, starting at 1
+     */
+    public long backoffMillis(int attempt) {
+        int shift = Math.min(MAX_BACKOFF_SHIFT, Math.max(0, attempt - 1));
+        long ceiling = Math.min(maxBackoffMillis, baseMillis << shift);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public Budget newBudget() {
+        return new Budget();
+    }
+
+    public void hedgeSent() {
+        hedgesSent.incrementAndGet();
+    }
+
+    public void hedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    public void logStatistics() {
+        log.info(
+                "Dynatrace retries: transient={}, overload={}, reexecuted={}, reauthenticated={}, budgetExhausted={}, hedgedPolls={}, hedgesWon={}",
+                transientRetries.get(),
+                overloadRetries.get(),
+                reexecutions.get(),
+                reauthentications.get(),
+                exhausted.get(),
+                hedgesSent.get(),
+                hedgesWon.get()
+        );
+    }
+
+    /**
+     * Retries left for one call. Overload retries are counted separately because
+     * waiting for Retry-After is what the server asked for, not a sign the call is broken.
+     */
+    public final class Budget {
+
+        private int attempts;
+        private int overloads;
+        private boolean spent;
+
+        private Budget() {
+        }
+
+        /**
+         * Consumes one retry for the failure if it is retryable and the budget allows it.
+         */
+        public boolean tryRetry(Failure failure) {
+            if (failure == Failure.FATAL || spent) {
+                return false;
+            }
+            if (failure == Failure.OVERLOADED) {
+                if (overloads >= MAX_OVERLOAD_RETRIES) {
+                    return exhaust();
+                }
+                overloads++;
+                overloadRetries.incrementAndGet();
+                return true;
+            }
+            if (attempts >= maxAttempts) {
+                return exhaust();
+            }
+            attempts++;
+            switch (failure) {
+                case TOKEN_EXPIRED -> reexecutions.incrementAndGet();
+                case UNAUTHORIZED -> reauthentications.incrementAndGet();
+                default -> transientRetries.incrementAndGet();
+            }
+            return true;
+        }
+
+        private boolean exhaust() {
+            spent = true;
+            exhausted.incrementAndGet();
+            return false;
+        }
+
+        /**
+         * Retries made so far, other than for overload.
+         */
+        public int attempts() {
+            return attempts;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.marriott.finance.soxarchive.model;
+
+import java.util.Locale;
+
+/**
+ * Container and codec of the archived JSON lines, with the object suffix and content type used in S3.
+ */
+public enum ArchiveFormat {
+
+    /** one DEFLATE entry in a ZIP archive */
+    ZIP("zip", "application/zip", 9),
+    /** JSON lines in a gzip member */
+    GZIP("jsonl.gz", "application/gzip", 9),
+    /** JSON lines in a zstd frame */
+    ZSTD("jsonl.zst", "application/zstd", 22);
+
+    /** Leaves the codec's own default level. */
+    public static final int DEFAULT_LEVEL = -1;
+
+    private final String extension;
+    private final String contentType;
+    private final int maxLevel;
+
+    ArchiveFormat(String extension, String contentType, int maxLevel) {
+        this.extension = extension;
+        this.contentType = contentType;
+        this.maxLevel = maxLevel;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Rejects a compression level the codec would refuse once a part is written:
+     * 0-9 for ZIP and gzip, 0-22 for zstd, or {@link #DEFAULT_LEVEL}.
+     */
+    public void checkLevel(int level) {
+        if (level != DEFAULT_LEVEL && (level < 0 || level > maxLevel)) {
+            throw new IllegalArgumentException(
+                    "Compression level " + level + " is not valid for " + this
+                            + "; use 0-" + maxLevel + " or " + DEFAULT_LEVEL + " for the default"
+            );
+        }
+    }
+
+    /**
+     * Accepts {@code zip}, {@code gzip} and {@code zstd}, in any case.
+     */
+    public static ArchiveFormat parse(String value) {
+        return switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "zip", "zip-deflate" -> ZIP;
+            case "gzip", "gz" -> GZIP;
+            case "zstd", "zst" -> ZSTD;
+            default -> throw new IllegalStateException("Unknown archive format: " + value);
+        };
+    }
+}
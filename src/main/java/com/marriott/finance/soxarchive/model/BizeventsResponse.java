@@ -1,12 +1,24 @@
 package com.marriott.finance.soxarchive.model;
 
-import com.fasterxml.jackson.databind.JsonNode;
-
-import java.time.Instant;
-import java.util.List;
-
 public record BizeventsResponse(
-        List<JsonNode> events,
-        Instant nextPageStartTime
+        int recordCount,
+        PageCursor next,
+        boolean truncated
 ) {
+
+    /**
+     * A page that came back short and was not cut by a server-side result limit
+     * holds the remaining records of the range, so there is nothing left to fetch.
+     * A full page without a cursor to resume after is an error rather than the end.
+     */
+    public boolean isLastPage(int pageSize) {
+        if (recordCount < pageSize && !truncated) {
+            return true;
+        }
+        if (next == null) {
+            throw new IllegalStateException(
+                    "Page of " + recordCount + " records has no record with a timestamp to resume after");
+        }
+        return false;
+    }
 }
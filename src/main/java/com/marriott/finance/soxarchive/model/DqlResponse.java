@@ -0,0 +1,16 @@
+package com.marriott.finance.soxarchive.model;
+
+/**
+ * Summary of a streamed query:execute / query:poll response.
+ * Records themselves are handed to a {@link RecordHandler} and not retained.
+ */
+public record DqlResponse(
+        String state,
+        String requestToken,
+        boolean resultPresent,
+        int recordCount,
+        PageCursor lastCursor,
+        boolean truncated,
+        String query
+) {
+}
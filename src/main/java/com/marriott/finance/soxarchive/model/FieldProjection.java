@@ -0,0 +1,54 @@
+package com.marriott.finance.soxarchive.model;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Which bizevent fields are archived for an integration, as DQL
+ * {@code fieldsKeep}/{@code fieldsRemove} commands appended to data queries.
+ * An empty keep list keeps every field. Names may use DQL wildcards, e.g. {@code dt.*}.
+ */
+public record FieldProjection(List<String> keep, List<String> remove) {
+
+    /** Fields the archiver reads itself: the paging cursor and batch routing. */
+    public static final List<String> REQUIRED_FIELDS = List.of("timestamp", "event.id", "source", "destination");
+
+    public static final FieldProjection ALL_FIELDS = new FieldProjection(List.of(), List.of());
+
+    public FieldProjection {
+        keep = List.copyOf(keep);
+        remove = List.copyOf(remove);
+        for (String field : remove) {
+            for (String required : REQUIRED_FIELDS) {
+                if (matches(field, required)) {
+                    throw new IllegalArgumentException(
+                            "fieldsRemove entry '" + field + "' would remove required field " + required
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Pipeline commands for the projection, empty when every field is archived.
+     */
+    public String dql() {
+        StringBuilder dql = new StringBuilder();
+        if (!keep.isEmpty()) {
+            Set<String> fields = new LinkedHashSet<>(REQUIRED_FIELDS);
+            fields.addAll(keep);
+            dql.append("| fieldsKeep ").append(String.join(", ", fields)).append(' ');
+        }
+        if (!remove.isEmpty()) {
+            dql.append("| fieldsRemove ").append(String.join(", ", remove)).append(' ');
+        }
+        return dql.toString();
+    }
+
+    private static boolean matches(String pattern, String field) {
+        String regex = Pattern.quote(pattern).replace("*", "\\E.*\\Q");
+        return field.matches(regex);
+    }
+}
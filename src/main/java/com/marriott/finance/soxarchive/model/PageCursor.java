@@ -0,0 +1,14 @@
+package com.marriott.finance.soxarchive.model;
+
+import java.time.Instant;
+
+/**
+ * Position of the last record of a page in (timestamp, event.id) order.
+ * The next page starts strictly after it, so records sharing a timestamp
+ * are neither skipped nor fetched twice.
+ */
+public record PageCursor(
+        Instant timestamp,
+        String eventId
+) {
+}
@@ -0,0 +1,29 @@
+package com.marriott.finance.soxarchive.model;
+
+/**
+ * One result record as UTF-8 JSON, copied from the response without building a tree.
+ *
+ * The buffer and the captured fields are reused for the next record, so a
+ * handler must copy whatever it keeps before returning.
+ */
+public interface RawRecord {
+
+    /**
+     * Holds the record's JSON from index 0 to {@link #length()}, without a trailing newline.
+     */
+    byte[] buffer();
+
+    int length();
+
+    /** Top-level {@code timestamp}, empty if the record has none. */
+    CharSequence timestamp();
+
+    /** Top-level {@code event.id}, empty if the record has none. */
+    CharSequence eventId();
+
+    /** Top-level {@code source}, empty if the record has none. */
+    CharSequence source();
+
+    /** Top-level {@code destination}, empty if the record has none. */
+    CharSequence destination();
+}
@@ -0,0 +1,40 @@
+package com.marriott.finance.soxarchive.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Receives DQL result records one at a time while the response is streamed.
+ */
+@FunctionalInterface
+public interface RecordHandler {
+
+    /**
+     * Called once per record, in the order returned by the query.
+     */
+    void onRecord(JsonNode record) throws Exception;
+
+    /**
+     * True if the handler takes records as raw JSON bytes through
+     * {@link #onRawRecord}; the reader then never builds a {@link JsonNode}.
+     */
+    default boolean acceptsRaw() {
+        return false;
+    }
+
+    /**
+     * Called once per record instead of {@link #onRecord} when {@link #acceptsRaw()} is true.
+     */
+    default void onRawRecord(RawRecord record) throws Exception {
+        throw new UnsupportedOperationException("Handler does not accept raw records");
+    }
+
+    /**
+     * Forgets the records received so far, so a response that failed part way
+     * can be fetched again without duplicating them.
+     *
+     * @return false if records already handed on cannot be taken back
+     */
+    default boolean reset() {
+        return false;
+    }
+}
@@ -0,0 +1,13 @@
+package com.marriott.finance.soxarchive.model;
+
+import java.time.Instant;
+
+/**
+ * A window of one integration that the backlog histogram reported as non-empty.
+ */
+public record WorkUnit(
+        Instant windowStart,
+        Instant windowEnd,
+        long expectedCount
+) {
+}
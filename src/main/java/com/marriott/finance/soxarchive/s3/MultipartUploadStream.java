@@ -0,0 +1,288 @@
+package com.marriott.finance.soxarchive.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes one S3 object as a multipart upload, without a local file.
+ *
+ * Bytes are collected in a buffer of the part size; a full buffer is uploaded
+ * on the shared executor while the writer fills the next one, so uploading
+ * overlaps with whatever produces the bytes. At most {@code BUFFERS} buffers
+ * exist per stream, and the writer waits for a free one when all are in use.
+ * These buffers are not reserved in the page memory budget.
+ * {@link #close()} uploads the rest and completes the object; a failed close
+ * or {@link #abort()} aborts the multipart upload so no parts are left behind.
+ */
+public final class MultipartUploadStream extends OutputStream {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(MultipartUploadStream.class);
+
+    /** one being filled, two uploading */
+    private static final int BUFFERS = 3;
+    private static final long FAILURE_CHECK_MILLIS = 100;
+
+    private final S3Client s3Client;
+    private final ExecutorService executor;
+    private final String bucket;
+    private final String key;
+    private final String uploadId;
+    private final int partSize;
+
+    private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(BUFFERS);
+    private final List<Future<CompletedPart>> parts = new ArrayList<>();
+    private int allocatedBuffers;
+
+    private byte[] buffer;
+    private int position;
+    private long bytesWritten;
+    private boolean closed;
+    private boolean aborted;
+
+    MultipartUploadStream(
+            S3Client s3Client,
+            ExecutorService executor,
+            String bucket,
+            String key,
+            String contentType,
+            int partSize
+    ) {
+        this.s3Client = s3Client;
+        this.executor = executor;
+        this.bucket = bucket;
+        this.key = key;
+        this.partSize = partSize;
+        this.uploadId = s3Client.createMultipartUpload(
+                CreateMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .contentType(contentType)
+                        .build()
+        ).uploadId();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureBuffer();
+        buffer[position++] = (byte) b;
+        bytesWritten++;
+        if (position == buffer.length) {
+            submitPart();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ensureBuffer();
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, n);
+            position += n;
+            bytesWritten += n;
+            off += n;
+            len -= n;
+            if (position == buffer.length) {
+                submitPart();
+            }
+        }
+    }
+
+    /**
+     * Uploads the buffered rest and completes the object. Aborts the upload if that fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (position > 0 || parts.isEmpty()) {
+                submitPart();
+            }
+
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (Future<CompletedPart> part : parts) {
+                completed.add(part.get());
+            }
+
+            s3Client.completeMultipartUpload(
+                    CompleteMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                            .build()
+            );
+        } catch (Exception e) {
+            abort();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Multipart upload of s3://" + bucket + "/" + key + " failed", unwrap(e));
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Discards the object: stops outstanding part uploads and aborts the multipart upload.
+     */
+    public void abort() {
+        if (aborted) {
+            return;
+        }
+        aborted = true;
+        closed = true;
+
+        for (Future<CompletedPart> part : parts) {
+            part.cancel(true);
+        }
+        release();
+
+        try {
+            s3Client.abortMultipartUpload(
+                    AbortMultipartUploadRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .uploadId(uploadId)
+                            .build()
+            );
+            log.info("Aborted multipart upload of s3://{}/{}", bucket, key);
+        } catch (Exception e) {
+            log.warn("Could not abort multipart upload {} of s3://{}/{}", uploadId, bucket, key, e);
+        }
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    /**
+     * Last segment of the key.
+     */
+    public String objectName() {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private void ensureBuffer() throws IOException {
+        if (closed) {
+            throw new IOException("Multipart upload of s3://" + bucket + "/" + key + " is closed");
+        }
+        if (buffer != null) {
+            return;
+        }
+
+        buffer = freeBuffers.poll();
+        if (buffer == null && allocatedBuffers < BUFFERS) {
+            allocatedBuffers++;
+            buffer = new byte[partSize];
+        }
+
+        try {
+            while (buffer == null) {
+                throwIfPartFailed();
+                buffer = freeBuffers.poll(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+        }
+        position = 0;
+    }
+
+    private void submitPart() throws IOException {
+        throwIfPartFailed();
+
+        byte[] data = buffer != null ? buffer : new byte[0];
+        int length = position;
+        int partNumber = parts.size() + 1;
+        buffer = null;
+        position = 0;
+
+        parts.add(executor.submit(() -> {
+            try {
+                UploadPartResponse response = s3Client.uploadPart(
+                        UploadPartRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .contentLength((long) length)
+                                .build(),
+                        // a fresh stream per attempt, so the SDK can retry without a copy
+                        RequestBody.fromContentProvider(
+                                () -> new ByteArrayInputStream(data, 0, length),
+                                length,
+                                "application/octet-stream"
+                        )
+                );
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.eTag())
+                        .build();
+            } finally {
+                freeBuffers.offer(data);
+            }
+        }));
+    }
+
+    private void throwIfPartFailed() throws IOException {
+        for (Future<CompletedPart> part : parts) {
+            if (part.isDone() && !part.isCancelled()) {
+                try {
+                    part.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Part upload of s3://" + bucket + "/" + key + " failed", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while checking part uploads");
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the buffers go once nothing is written any more; running part uploads keep theirs until done.
+     */
+    private void release() {
+        buffer = null;
+        freeBuffers.clear();
+    }
+
+    private static Throwable unwrap(Exception e) {
+        if (e instanceof ExecutionException && e.getCause() != null) {
+            return e.getCause();
+        }
+        return e;
+    }
+}
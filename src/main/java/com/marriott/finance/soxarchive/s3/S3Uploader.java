@@ -19,18 +19,29 @@ import java.net.URI;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.marriott.finance.soxarchive.config.AppConfig;
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
 import com.marriott.finance.soxarchive.model.Integration;
 
 public final class S3Uploader {
 
     private final S3Client s3Client;
     private final String bucket;
+    private final int partSize;
+    private final ExecutorService partUploads;
     private static final String ARCHIVE_SESSION_NAME = "sox-archive-session";
 
     public S3Uploader(AppConfig config) {
         this.bucket = config.getS3DataBucketName();
+        this.partSize = config.s3PartSizeMb() * 1024 * 1024;
+        this.partUploads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "s3-part-upload");
+            thread.setDaemon(true);
+            return thread;
+        });
 
         Region region = Region.of(config.awsRegion());
         S3ClientBuilder builder = S3Client.builder().region(region);
@@ -99,42 +110,99 @@ public final class S3Uploader {
     }
 
     /**
-     * Uploads a ZIP archive to S3 using integration + hour-based partitioning.
+     * Uploads an archive part to S3 using integration + hour-based partitioning,
+     * with the format's suffix and content type.
      */
-    public void uploadZip(
+    public void uploadArchive(
             Integration integration,
-            File zipFile,
-            Instant timestamp
+            File archiveFile,
+            Instant timestamp,
+            ArchiveFormat format
     ) {
 
-        if (zipFile == null || !zipFile.exists()) {
-            throw new IllegalArgumentException("ZIP file does not exist");
+        if (archiveFile == null || !archiveFile.exists()) {
+            throw new IllegalArgumentException("Archive file does not exist");
         }
 
-        ZonedDateTime zdt = timestamp.atZone(ZoneOffset.UTC);
-
-        String key =
-                "bizevents/"
-                        + "integration=" + integration.getId() + "/"
-                        + "year=" + zdt.getYear() + "/"
-                        + "month=" + pad(zdt.getMonthValue()) + "/"
-                        + "day=" + pad(zdt.getDayOfMonth()) + "/"
-                        + "hour=" + pad(zdt.getHour()) + "/"
-                        + zipFile.getName();
+        String key = archiveKey(integration, timestamp, archiveFile.getName(), format);
 
         PutObjectRequest request =
                 PutObjectRequest.builder()
                         .bucket(bucket)
                         .key(key)
-                        .contentType("application/zip")
+                        .contentType(format.contentType())
+                        .build();
+
+        s3Client.putObject(
+                request,
+                RequestBody.fromFile(archiveFile)
+        );
+    }
+
+    /**
+     * Uploads a JSON object describing an archive part as {@code <archive key><suffix>},
+     * e.g. its block index or manifest.
+     */
+    public void uploadSidecar(
+            Integration integration,
+            Instant timestamp,
+            String archiveName,
+            ArchiveFormat format,
+            String suffix,
+            byte[] json
+    ) {
+        PutObjectRequest request =
+                PutObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(archiveKey(integration, timestamp, archiveName, format) + suffix)
+                        .contentType("application/json")
                         .build();
 
         s3Client.putObject(
                 request,
-                RequestBody.fromFile(zipFile)
+                RequestBody.fromBytes(json)
         );
     }
 
+    /**
+     * Starts a multipart upload of an archive part under the same key layout as {@link #uploadArchive};
+     * the object exists once the returned stream is closed.
+     */
+    public MultipartUploadStream openArchiveStream(
+            Integration integration,
+            Instant timestamp,
+            String fileName,
+            ArchiveFormat format
+    ) {
+        return new MultipartUploadStream(
+                s3Client,
+                partUploads,
+                bucket,
+                archiveKey(integration, timestamp, fileName, format),
+                format.contentType(),
+                partSize
+        );
+    }
+
+    /**
+     * Object key of an archive part; the format's suffix is appended unless the name already ends with it.
+     */
+    private static String archiveKey(Integration integration, Instant timestamp, String fileName, ArchiveFormat format) {
+
+        String suffix = "." + format.extension();
+        String objectName = fileName.endsWith(suffix) ? fileName : fileName + suffix;
+
+        ZonedDateTime zdt = timestamp.atZone(ZoneOffset.UTC);
+
+        return "bizevents/"
+                + "integration=" + integration.getId() + "/"
+                + "year=" + zdt.getYear() + "/"
+                + "month=" + pad(zdt.getMonthValue()) + "/"
+                + "day=" + pad(zdt.getDayOfMonth()) + "/"
+                + "hour=" + pad(zdt.getHour()) + "/"
+                + objectName;
+    }
+
     private static String pad(int value) {
         return value < 10 ? "0" + value : String.valueOf(value);
     }
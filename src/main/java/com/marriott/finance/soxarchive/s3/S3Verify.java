@@ -21,8 +21,7 @@ import software.amazon.awssdk.services.sts.StsClientBuilder;
 import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
 import software.amazon.awssdk.services.sts.auth.StsAssumeRoleCredentialsProvider;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.time.Instant;
 import java.time.ZoneOffset;
@@ -54,8 +53,7 @@ public final class S3Verify {
         S3Client checkpointClient = buildS3Client(false);
 
         // 1) create & upload test archive
-        File zip = createTestZip();
-        String archiveKey = uploadTestArchive(archiveClient, config.getS3DataBucketName(), zip);
+        String archiveKey = uploadTestArchive(archiveClient, config.getS3DataBucketName(), testZipName(), createTestZip());
         System.out.println("Uploaded test archive: " + archiveKey);
 
         // 2) list most recent 10 files in archive prefix
@@ -73,8 +71,6 @@ public final class S3Verify {
         listRecentKeys(checkpointClient, config.getS3CheckpointBucketName(), "checkpoints/", 10)
                 .forEach(k -> System.out.println("  " + k));
 
-        // cleanup temp zip
-        zip.delete();
         archiveClient.close();
         checkpointClient.close();
     }
@@ -133,13 +129,16 @@ public final class S3Verify {
         return builder.build();
     }
 
-    private File createTestZip() throws Exception {
-        String fileName = "sox-verify-" + DateTimeFormatter.ofPattern("yyyyMMddHHmmss").format(ZonedDateTime.now(ZoneOffset.UTC)) + ".zip";
-        File tmp = new File(config.getTempLocalDir(), fileName);
-        tmp.getParentFile().mkdirs();
+    private static String testZipName() {
+        return "sox-verify-" + DateTimeFormatter.ofPattern("yyyyMMddHHmmss").format(ZonedDateTime.now(ZoneOffset.UTC)) + ".zip";
+    }
 
-        try (FileOutputStream fos = new FileOutputStream(tmp);
-             ZipOutputStream zos = new ZipOutputStream(fos)) {
+    /**
+     * Built in memory, as TEMP_LOCAL_DIR is not set when parts are streamed to S3.
+     */
+    private static byte[] createTestZip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(bytes)) {
 
             ZipEntry entry = new ZipEntry("verify.txt");
             zos.putNextEntry(entry);
@@ -147,10 +146,10 @@ public final class S3Verify {
             zos.write(content.getBytes("UTF-8"));
             zos.closeEntry();
         }
-        return tmp;
+        return bytes.toByteArray();
     }
 
-    private String uploadTestArchive(S3Client s3, String bucket, File zipFile) {
+    private String uploadTestArchive(S3Client s3, String bucket, String fileName, byte[] zip) {
         Instant now = Instant.now();
         ZonedDateTime zdt = now.atZone(ZoneOffset.UTC);
         String key = "bizevents/"
@@ -159,7 +158,7 @@ public final class S3Verify {
                 + "month=" + pad(zdt.getMonthValue()) + "/"
                 + "day=" + pad(zdt.getDayOfMonth()) + "/"
                 + "hour=" + pad(zdt.getHour()) + "/"
-                + zipFile.getName();
+                + fileName;
 
         PutObjectRequest req = PutObjectRequest.builder()
                 .bucket(bucket)
@@ -167,7 +166,7 @@ public final class S3Verify {
                 .contentType("application/zip")
                 .build();
 
-        s3.putObject(req, RequestBody.fromFile(zipFile));
+        s3.putObject(req, RequestBody.fromBytes(zip));
         return key;
     }
 
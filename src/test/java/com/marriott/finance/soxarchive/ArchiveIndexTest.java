@@ -0,0 +1,149 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.luben.zstd.ZstdInputStream;
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Every block of a seekable part, cut out at its index entry, decompresses on its own.
+ */
+public class ArchiveIndexTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String ENTRY = "IC-01_events.jsonl";
+    private static final Instant START = Instant.parse("2024-05-01T00:00:00Z");
+    private static final int RECORDS = 2000;
+    private static final long BLOCK_BYTES = 16 * 1024;
+
+    public void testZipBlocksAreEntries() throws Exception {
+        assertBlocksStandAlone(ArchiveFormat.ZIP);
+    }
+
+    public void testGzipBlocksAreMembers() throws Exception {
+        assertBlocksStandAlone(ArchiveFormat.GZIP);
+    }
+
+    public void testZstdBlocksAreFrames() throws Exception {
+        assertBlocksStandAlone(ArchiveFormat.ZSTD);
+    }
+
+    private void assertBlocksStandAlone(ArchiveFormat format) throws Exception {
+        List<String> lines = new ArrayList<>();
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        ArchiveWriter writer = ArchiveWriter.open(format, part, ENTRY, ArchiveFormat.DEFAULT_LEVEL, 1, null, BLOCK_BYTES);
+        for (int i = 0; i < RECORDS; i++) {
+            String timestamp = START.plusMillis(i * 1500L).toString();
+            String line = "{\"timestamp\":\"" + timestamp + "\",\"event.id\":\"e" + i + "\",\"amount\":" + (i * 7919 % 10007) + "}";
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            writer.writeLine(bytes, 0, bytes.length, timestamp);
+            lines.add(line);
+        }
+        writer.close();
+        byte[] archive = part.toByteArray();
+
+        ArchiveIndex index = writer.index();
+        assertEquals(format, index.format());
+        assertEquals(RECORDS, index.records());
+        assertTrue("expected several blocks, got " + index.blocks().size(), index.blocks().size() > 3);
+
+        long nextRecord = 0;
+        long nextOffset = 0;
+        for (ArchiveIndex.Block block : index.blocks()) {
+            assertEquals(nextRecord, block.firstRecord());
+            // entries, members and frames follow each other without gaps
+            assertEquals(nextOffset, block.offset());
+
+            List<String> blockLines = decompress(format, archive, block);
+            assertEquals(lines.subList((int) block.firstRecord(), (int) (block.firstRecord() + block.records())), blockLines);
+            assertEquals(block.firstTimestamp(), timestamp(blockLines.get(0)));
+            assertEquals(block.lastTimestamp(), timestamp(blockLines.get(blockLines.size() - 1)));
+            for (String line : blockLines) {
+                String timestamp = timestamp(line);
+                assertTrue(timestamp.compareTo(block.firstTimestamp()) >= 0);
+                assertTrue(timestamp.compareTo(block.lastTimestamp()) <= 0);
+            }
+            long uncompressed = 0;
+            for (String line : blockLines) {
+                uncompressed += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+            assertEquals(block.uncompressedBytes(), uncompressed);
+
+            nextRecord += block.records();
+            nextOffset = block.offset() + block.length();
+        }
+        assertEquals(RECORDS, nextRecord);
+        // only a ZIP's central directory follows the last block
+        assertEquals(format == ArchiveFormat.ZIP, nextOffset < archive.length);
+
+        // and the part as a whole is still an ordinary file of its format
+        assertEquals(lines, readWhole(format, archive));
+    }
+
+    /**
+     * What a reader does with a ranged GET of {@code offset .. offset + length - 1}.
+     */
+    private static List<String> decompress(ArchiveFormat format, byte[] archive, ArchiveIndex.Block block) throws IOException {
+        InputStream range = new ByteArrayInputStream(archive, (int) block.offset(), (int) block.length());
+        return switch (format) {
+            case ZIP -> {
+                try (ZipInputStream zip = new ZipInputStream(range)) {
+                    ZipEntry entry = zip.getNextEntry();
+                    assertEquals(block.entryName(), entry.getName());
+                    yield lines(zip.readAllBytes());
+                }
+            }
+            case GZIP -> {
+                try (InputStream gzip = new GZIPInputStream(range)) {
+                    yield lines(gzip.readAllBytes());
+                }
+            }
+            case ZSTD -> {
+                try (InputStream zstd = new ZstdInputStream(range)) {
+                    yield lines(zstd.readAllBytes());
+                }
+            }
+        };
+    }
+
+    private static List<String> readWhole(ArchiveFormat format, byte[] archive) throws IOException {
+        InputStream in = new ByteArrayInputStream(archive);
+        if (format == ArchiveFormat.ZIP) {
+            List<String> all = new ArrayList<>();
+            try (ZipInputStream zip = new ZipInputStream(in)) {
+                while (zip.getNextEntry() != null) {
+                    all.addAll(lines(zip.readAllBytes()));
+                }
+            }
+            return all;
+        }
+        try (InputStream codec = format == ArchiveFormat.GZIP ? new GZIPInputStream(in) : new ZstdInputStream(in)) {
+            return lines(codec.readAllBytes());
+        }
+    }
+
+    private static List<String> lines(byte[] bytes) {
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        assertTrue("block must end at a line boundary", text.endsWith("\n"));
+        return List.of(text.substring(0, text.length() - 1).split("\n"));
+    }
+
+    private static String timestamp(String line) throws IOException {
+        JsonNode record = MAPPER.readTree(line);
+        return record.path("timestamp").asText();
+    }
+}
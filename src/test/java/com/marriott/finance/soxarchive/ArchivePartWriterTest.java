@@ -0,0 +1,203 @@
+package com.marriott.finance.soxarchive;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.marriott.finance.soxarchive.model.ArchiveFormat;
+import com.marriott.finance.soxarchive.model.Integration;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A part's manifest agrees with the bytes actually stored, and parts roll over at the size limit.
+ */
+public class ArchivePartWriterTest extends TestCase {
+
+    private static final Integration INTEGRATION = new Integration("IC-01", "src", "dst");
+    private static final Instant WINDOW_START = Instant.parse("2024-05-01T10:00:00Z");
+    private static final String QUERY = "fetch bizevents";
+
+    private File tempDir;
+    private final List<ArchivePartWriter.Part> parts = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("part-writer").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        for (ArchivePartWriter.Part part : parts) {
+            part.delete();
+        }
+        Files.deleteIfExists(tempDir.toPath());
+    }
+
+    public void testZipManifest() throws Exception {
+        assertManifestMatchesPart("zip", "0");
+    }
+
+    public void testGzipManifest() throws Exception {
+        assertManifestMatchesPart("gzip", "0");
+    }
+
+    public void testSeekableZstdManifest() throws Exception {
+        assertManifestMatchesPart("zstd", "1");
+    }
+
+    private void assertManifestMatchesPart(String format, String seekableBlockMb) throws Exception {
+        ArchivePartWriter writer = new ArchivePartWriter(parts::add, null, INTEGRATION, WINDOW_START, QUERY,
+                TestConfig.of(
+                        "TEMP_LOCAL_DIR", tempDir.getPath(),
+                        "ARCHIVE_FORMAT", format,
+                        "SEEKABLE_BLOCK_MB", seekableBlockMb));
+
+        List<String> timestamps = new ArrayList<>();
+        try (writer) {
+            for (int i = 0; i < 5000; i++) {
+                // slightly out of order, as records of neighbouring pages can be
+                String timestamp = i % 1000 == 999 ? "" : WINDOW_START.plusMillis(i * 700L + (i % 3) * 1000L).toString();
+                String line = "{\"timestamp\":\"" + timestamp + "\",\"event.id\":\"e" + i + "\",\"note\":\"ü" + i + "\"}";
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                writer.writeLine(bytes, 0, bytes.length, timestamp, i);
+                if (!timestamp.isEmpty()) {
+                    timestamps.add(timestamp);
+                }
+            }
+            writer.finish();
+        }
+
+        assertEquals(1, parts.size());
+        ArchivePartWriter.Part part = parts.get(0);
+        PartManifest manifest = part.manifest();
+        byte[] stored = Files.readAllBytes(part.file().toPath());
+        byte[] content = decompress(part.format(), stored);
+
+        assertEquals(INTEGRATION.getId(), manifest.integration());
+        assertEquals(WINDOW_START.toString(), manifest.windowStart());
+        assertEquals(1, manifest.partIndex());
+        assertEquals(part.file().getName(), manifest.object());
+        assertEquals(ArchiveFormat.parse(format), manifest.format());
+        assertEquals(QUERY, manifest.query());
+
+        assertEquals(5000, countLines(content));
+        assertEquals(5000, manifest.records());
+        assertEquals(content.length, manifest.uncompressedBytes());
+        assertEquals(stored.length, manifest.compressedBytes());
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(stored)), manifest.sha256());
+
+        timestamps.sort(null);
+        assertEquals(timestamps.get(0), manifest.minTimestamp());
+        assertEquals(timestamps.get(timestamps.size() - 1), manifest.maxTimestamp());
+    }
+
+    public void testEstimatedSizeRollsParts() throws Exception {
+        // 100 byte lines plus newline, estimated at half their size: a 10 000 byte part holds 199 of them
+        ArchivePartWriter writer = new ArchivePartWriter(parts::add, null, INTEGRATION, WINDOW_START, QUERY,
+                TestConfig.of(
+                        "TEMP_LOCAL_DIR", tempDir.getPath(),
+                        "PART_SIZE_ESTIMATE_PERCENT", "50"),
+                10_000);
+
+        try (writer) {
+            for (int i = 0; i < 1000; i++) {
+                byte[] bytes = String.format("{\"event.id\":\"e%04d\",\"note\":\"%-70s\"}", i, "x")
+                        .getBytes(StandardCharsets.UTF_8);
+                assertEquals(100, bytes.length);
+                writer.writeLine(bytes, 0, bytes.length, "", i);
+            }
+            writer.finish();
+        }
+
+        assertEquals(6, parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            ArchivePartWriter.Part part = parts.get(i);
+            boolean last = i == parts.size() - 1;
+            assertEquals(i + 1, part.partIndex());
+            assertEquals(last ? "final" : "rolled", part.kind());
+            assertEquals(last ? 5 : 199, part.manifest().records());
+        }
+    }
+
+    public void testCompressedSizeRollsParts() throws Exception {
+        long maxPartBytes = 64 * 1024;
+        ArchivePartWriter writer = new ArchivePartWriter(parts::add, null, INTEGRATION, WINDOW_START, QUERY,
+                TestConfig.of("TEMP_LOCAL_DIR", tempDir.getPath()),
+                maxPartBytes);
+
+        Random random = new Random(42);
+        try (writer) {
+            for (int i = 0; i < 5000; i++) {
+                // random hex compresses to about half, so the parts fill up on compressed bytes
+                StringBuilder note = new StringBuilder();
+                for (int j = 0; j < 200; j++) {
+                    note.append(Character.forDigit(random.nextInt(16), 16));
+                }
+                byte[] bytes = ("{\"event.id\":\"e" + i + "\",\"note\":\"" + note + "\"}").getBytes(StandardCharsets.UTF_8);
+                writer.writeLine(bytes, 0, bytes.length, "", i);
+            }
+            writer.finish();
+        }
+
+        assertTrue("parts: " + parts.size(), parts.size() > 1);
+        long records = 0;
+        for (ArchivePartWriter.Part part : parts) {
+            if ("rolled".equals(part.kind())) {
+                assertTrue(part.file().length() >= maxPartBytes);
+            }
+            assertEquals(part.file().length(), part.manifest().compressedBytes());
+            records += part.manifest().records();
+        }
+        assertEquals("final", parts.get(parts.size() - 1).kind());
+        assertEquals(5000, records);
+    }
+
+    private static byte[] decompress(ArchiveFormat format, byte[] stored) throws IOException {
+        InputStream in = new ByteArrayInputStream(stored);
+        return switch (format) {
+            case ZIP -> {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                try (ZipInputStream zip = new ZipInputStream(in)) {
+                    while (zip.getNextEntry() != null) {
+                        zip.transferTo(content);
+                    }
+                }
+                yield content.toByteArray();
+            }
+            case GZIP -> {
+                try (InputStream gzip = new GZIPInputStream(in)) {
+                    yield gzip.readAllBytes();
+                }
+            }
+            case ZSTD -> {
+                try (InputStream zstd = new ZstdInputStream(in)) {
+                    yield zstd.readAllBytes();
+                }
+            }
+        };
+    }
+
+    private static int countLines(byte[] content) {
+        int lines = 0;
+        for (byte b : content) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
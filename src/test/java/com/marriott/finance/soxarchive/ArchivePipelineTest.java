@@ -0,0 +1,190 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marriott.finance.soxarchive.config.AppConfig;
+import com.marriott.finance.soxarchive.model.Checkpoint;
+import com.marriott.finance.soxarchive.model.CheckpointStore;
+import com.marriott.finance.soxarchive.model.Integration;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message order through the stages, checkpoints behind their uploads, and clean-up on stop.
+ */
+public class ArchivePipelineTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Integration INTEGRATION = new Integration("IC-01", "src", "dst");
+    private static final Instant START = Instant.parse("2024-05-01T00:00:00Z");
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private final CheckpointStore checkpoints = new CheckpointStore() {
+        @Override
+        public Checkpoint load(String integrationId) {
+            return Checkpoint.initial(integrationId);
+        }
+
+        @Override
+        public void save(Checkpoint checkpoint) {
+            events.add("checkpoint " + checkpoint.lastProcessedTimestamp());
+        }
+    };
+
+    private File tempDir;
+    private MemoryBudget budget;
+
+    @Override
+    protected void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("archive-pipeline").toFile();
+        budget = new MemoryBudget(1L << 30);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        File[] left = tempDir.listFiles();
+        if (left != null) {
+            for (File file : left) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(tempDir.toPath());
+    }
+
+    public void testCheckpointsFollowTheirWindowsUploads() throws Exception {
+        ArchivePipeline pipeline = pipeline(2, 2, part -> {
+            sleep(50);
+            events.add("part " + part.windowStart() + " " + part.manifest().records());
+        });
+        try (pipeline) {
+            for (int window = 0; window < 3; window++) {
+                archiveWindow(pipeline, window, 3);
+            }
+            // a window without records writes no part and leaves the checkpoint alone
+            pipeline.beginWindow(hour(3), hour(4), "query");
+            pipeline.endWindow();
+            pipeline.saveCheckpoint(hour(4));
+            pipeline.finish();
+        }
+
+        assertEquals(List.of(
+                "part " + hour(0) + " 6",
+                "checkpoint " + hour(1),
+                "part " + hour(1) + " 6",
+                "checkpoint " + hour(2),
+                "part " + hour(2) + " 6",
+                "checkpoint " + hour(3),
+                "checkpoint " + hour(4)
+        ), events);
+        assertEquals(0, budget.reservedBytes());
+        assertEquals(0, tempDir.list().length);
+    }
+
+    public void testCloseDrainsCompletedWindowsAndDropsTheOpenOne() throws Exception {
+        try (ArchivePipeline pipeline = pipeline(2, 2, part -> events.add("part " + part.windowStart()))) {
+            archiveWindow(pipeline, 0, 1);
+            pipeline.beginWindow(hour(1), hour(2), "query");
+            pipeline.accept(page(1, 2));
+        }
+
+        assertEquals(List.of("part " + hour(0), "checkpoint " + hour(1)), events);
+        assertEquals(0, budget.reservedBytes());
+        assertEquals(0, tempDir.list().length);
+    }
+
+    public void testFailedUploadReleasesQueuedPagesAndSavesNoCheckpoint() throws Exception {
+        CountDownLatch uploadMayFail = new CountDownLatch(1);
+        ArchivePipeline pipeline = pipeline(4, 1, part -> {
+            try {
+                uploadMayFail.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("upload rejected");
+        });
+        try (pipeline) {
+            // the first part blocks the upload stage, its checkpoint fills the upload queue,
+            // and the compress stage waits to hand off the second part
+            archiveWindow(pipeline, 0, 1);
+            archiveWindow(pipeline, 1, 1);
+            pipeline.beginWindow(hour(2), hour(3), "query");
+            for (int i = 0; i < 3; i++) {
+                pipeline.accept(page(2, 2));
+            }
+            assertTrue(budget.reservedBytes() > 0);
+
+            uploadMayFail.countDown();
+            try {
+                for (int i = 0; i < 100; i++) {
+                    pipeline.accept(page(2, 2)).reset();
+                }
+                pipeline.endWindow();
+                fail("expected the upload failure to reach the fetch stage");
+            } catch (IllegalStateException expected) {
+                assertEquals("upload rejected", rootCause(expected).getMessage());
+            }
+        }
+
+        assertTrue(events.isEmpty());
+        assertEquals(0, budget.reservedBytes());
+        assertEquals(0, tempDir.list().length);
+    }
+
+    private ArchivePipeline pipeline(int pageQueueDepth, int partQueueDepth, ArchivePartWriter.PartSink uploads) {
+        AppConfig config = TestConfig.of(
+                "STAGED_PIPELINE", "true",
+                "PIPELINE_QUEUE_DEPTH", String.valueOf(pageQueueDepth),
+                "UPLOAD_QUEUE_DEPTH", String.valueOf(partQueueDepth),
+                "TEMP_LOCAL_DIR", tempDir.getPath());
+        return new ArchivePipeline(null, uploads, null, checkpoints, INTEGRATION, config);
+    }
+
+    private void archiveWindow(ArchivePipeline pipeline, int hour, int pages) throws Exception {
+        pipeline.beginWindow(hour(hour), hour(hour + 1), "query");
+        for (int i = 0; i < pages; i++) {
+            pipeline.accept(page(hour, 2));
+        }
+        pipeline.endWindow();
+    }
+
+    /**
+     * A page of {@code records} events in the given hour, holding a reservation of the budget.
+     */
+    private PageBuffer page(int hour, int records) throws Exception {
+        PageBuffer page = new PageBuffer();
+        for (int i = 0; i < records; i++) {
+            page.onRecord(MAPPER.readTree("{\"timestamp\":\"" + hour(hour).plusSeconds(i)
+                    + "\",\"event.id\":\"" + hour + "-" + i + "\"}"));
+        }
+        page.hold(budget.reservePage(records));
+        return page;
+    }
+
+    private static Instant hour(int hour) {
+        return START.plusSeconds(3600L * hour);
+    }
+
+    private static Throwable rootCause(Throwable e) {
+        while (e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.marriott.finance.soxarchive.model.Checkpoint;
+import com.marriott.finance.soxarchive.model.CheckpointStore;
+import com.marriott.finance.soxarchive.model.DqlResponse;
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.RecordHandler;
+import com.marriott.finance.soxarchive.model.WorkUnit;
+
+import junit.framework.TestCase;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Building the backlog plan from one histogram response.
+ */
+public class BacklogPlannerTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Integration FIRST = new Integration("IC-01", "Src", "dst");
+    private static final Integration SECOND = new Integration("IC-02", "src", "other");
+
+    private final Instant cutoff = ProcessIntegration.processingCutoff();
+    private final Map<String, Instant> checkpoints = new HashMap<>();
+    private final List<ObjectNode> hours = new ArrayList<>();
+    private final CheckpointStore store = new CheckpointStore() {
+        @Override
+        public Checkpoint load(String integrationId) {
+            Instant last = checkpoints.get(integrationId);
+            return last == null ? null : new Checkpoint(integrationId, last, last);
+        }
+
+        @Override
+        public void save(Checkpoint checkpoint) {
+            throw new AssertionError("planning must not move checkpoints");
+        }
+    };
+
+    private int queries;
+
+    public void testNonEmptyHoursAfterEachCheckpointBecomeUnits() throws Exception {
+        checkpoints.put(FIRST.getId(), beforeCutoff(4));
+        checkpoints.put(SECOND.getId(), beforeCutoff(1));
+        hour("src", "DST", beforeCutoff(4), 10);
+        hour("src", "dst", beforeCutoff(2), 30);
+        hour("src", "dst", beforeCutoff(3), 0);
+        hour("src", "other", beforeCutoff(3), 99);   // before IC-02's checkpoint
+        hour("src", "other", beforeCutoff(1), 7);
+        hour("src", "unknown", beforeCutoff(1), 5);
+
+        BacklogPlan plan = BacklogPlanner.plan(this::histogram, store, List.of(FIRST, SECOND));
+
+        assertEquals(1, queries);
+        assertEquals(cutoff, plan.end());
+        assertEquals(List.of(
+                        new WorkUnit(beforeCutoff(4), beforeCutoff(3), 10),
+                        new WorkUnit(beforeCutoff(2), beforeCutoff(1), 30)),
+                plan.unitsFor(FIRST));
+        assertEquals(List.of(new WorkUnit(beforeCutoff(1), beforeCutoff(0), 7)), plan.unitsFor(SECOND));
+        assertEquals(47, plan.expectedRecords());
+    }
+
+    public void testIntegrationWithoutRecordsIsCoveredButEmpty() throws Exception {
+        checkpoints.put(FIRST.getId(), beforeCutoff(2));
+
+        BacklogPlan plan = BacklogPlanner.plan(this::histogram, store, List.of(FIRST));
+
+        assertTrue(plan.covers(FIRST));
+        assertTrue(plan.unitsFor(FIRST).isEmpty());
+        assertFalse(plan.covers(SECOND));
+    }
+
+    public void testTruncatedHistogramGivesNoPlan() throws Exception {
+        checkpoints.put(FIRST.getId(), beforeCutoff(4));
+        hour("src", "dst", beforeCutoff(4), 10);
+
+        BacklogPlan plan = BacklogPlanner.plan(
+                (integrations, from, to, handler) -> {
+                    DqlResponse response = histogram(integrations, from, to, handler);
+                    return new DqlResponse("SUCCEEDED", null, true, response.recordCount(), null, true, "histogram");
+                },
+                store, List.of(FIRST));
+
+        assertNull(plan);
+    }
+
+    public void testNoBacklogSkipsTheQuery() throws Exception {
+        checkpoints.put(FIRST.getId(), cutoff);
+
+        assertNull(BacklogPlanner.plan(this::histogram, store, List.of(FIRST)));
+        assertEquals(0, queries);
+    }
+
+    private DqlResponse histogram(List<Integration> integrations, Instant from, Instant to, RecordHandler handler)
+            throws Exception {
+        queries++;
+        assertEquals(cutoff, to);
+        for (ObjectNode record : hours) {
+            handler.onRecord(record);
+        }
+        return new DqlResponse("SUCCEEDED", null, true, hours.size(), null, false, "histogram");
+    }
+
+    private void hour(String source, String destination, Instant hour, long count) {
+        ObjectNode record = MAPPER.createObjectNode();
+        record.put("source", source);
+        record.put("destination", destination);
+        record.put("hour", hour.toString());
+        record.put("count", count);
+        hours.add(record);
+    }
+
+    private Instant beforeCutoff(int hours) {
+        return cutoff.minus(Duration.ofHours(hours));
+    }
+}
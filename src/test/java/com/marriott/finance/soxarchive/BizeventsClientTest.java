@@ -0,0 +1,55 @@
+package com.marriott.finance.soxarchive;
+
+import com.marriott.finance.soxarchive.model.PageCursor;
+
+import junit.framework.TestCase;
+
+import java.time.Instant;
+
+/**
+ * Keyset pagination clause of the data queries.
+ */
+public class BizeventsClientTest extends TestCase {
+
+    private static final Instant TS = Instant.parse("2024-05-01T10:15:30.123Z");
+
+    public void testFirstPageOnlySortsAndLimits() {
+        assertEquals("| sort timestamp asc, event.id asc | limit 500 ",
+                BizeventsClient.keysetClause(null, 500));
+    }
+
+    public void testSortsBeforeLimit() {
+        String clause = BizeventsClient.keysetClause(new PageCursor(TS, "abc"), 500);
+
+        int filter = clause.indexOf("| filter");
+        int sort = clause.indexOf("| sort timestamp asc, event.id asc");
+        int limit = clause.indexOf("| limit 500");
+        assertTrue(clause, filter >= 0 && filter < sort);
+        assertTrue(clause, sort < limit);
+    }
+
+    public void testBreaksTimestampTiesByEventId() {
+        String clause = BizeventsClient.keysetClause(new PageCursor(TS, "abc"), 500);
+
+        String ts = "toTimestamp(\"2024-05-01T10:15:30.123Z\")";
+        assertEquals("| filter timestamp > " + ts
+                        + " OR (timestamp == " + ts + " AND event.id > \"abc\") "
+                        + "| sort timestamp asc, event.id asc | limit 500 ",
+                clause);
+    }
+
+    public void testEscapesEventId() {
+        String clause = BizeventsClient.keysetClause(new PageCursor(TS, "a\"b\\c"), 500);
+
+        assertTrue(clause, clause.contains("event.id > \"a\\\"b\\\\c\")"));
+    }
+
+    public void testRejectsCursorWithoutEventId() {
+        try {
+            BizeventsClient.keysetClause(new PageCursor(TS, null), 500);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains(TS.toString()));
+        }
+    }
+}
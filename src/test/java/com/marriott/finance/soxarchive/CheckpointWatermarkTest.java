@@ -0,0 +1,72 @@
+package com.marriott.finance.soxarchive;
+
+import junit.framework.TestCase;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checkpoint advance over windows completing out of order.
+ */
+public class CheckpointWatermarkTest extends TestCase {
+
+    private static final Instant T0 = Instant.parse("2024-05-01T00:00:00Z");
+
+    private final List<Instant> saved = new ArrayList<>();
+
+    private CheckpointWatermark watermark(int windows) {
+        List<Instant> ends = new ArrayList<>();
+        for (int i = 1; i <= windows; i++) {
+            ends.add(end(i - 1));
+        }
+        return new CheckpointWatermark(ends, saved::add);
+    }
+
+    private static Instant end(int index) {
+        return T0.plusSeconds(3600L * (index + 1));
+    }
+
+    public void testInOrderCompletionSavesEveryWindow() throws Exception {
+        CheckpointWatermark watermark = watermark(3);
+
+        watermark.completed(0);
+        watermark.completed(1);
+        watermark.completed(2);
+
+        assertEquals(List.of(end(0), end(1), end(2)), saved);
+        assertEquals(end(2), watermark.watermark());
+    }
+
+    public void testLaterWindowDoesNotPassUnfinishedEarlierOne() throws Exception {
+        CheckpointWatermark watermark = watermark(4);
+
+        watermark.completed(2);
+        watermark.completed(1);
+
+        assertTrue(saved.isEmpty());
+        assertNull(watermark.watermark());
+
+        watermark.completed(0);
+
+        // one save for the whole prefix, at its last window
+        assertEquals(List.of(end(2)), saved);
+        assertEquals(end(2), watermark.watermark());
+    }
+
+    public void testGapHoldsTheWatermark() throws Exception {
+        CheckpointWatermark watermark = watermark(4);
+
+        watermark.completed(0);
+        watermark.completed(3);
+        watermark.completed(2);
+
+        assertEquals(List.of(end(0)), saved);
+        assertEquals(end(0), watermark.watermark());
+
+        watermark.completed(1);
+
+        assertEquals(List.of(end(0), end(3)), saved);
+        assertEquals(end(3), watermark.watermark());
+    }
+}
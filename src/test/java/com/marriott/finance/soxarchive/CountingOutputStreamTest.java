@@ -0,0 +1,24 @@
+package com.marriott.finance.soxarchive;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Bytes are counted and passed through unchanged, whichever write method is used.
+ */
+public class CountingOutputStreamTest extends TestCase {
+
+    public void testCountsEveryWrite() throws Exception {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CountingOutputStream counting = new CountingOutputStream(target);
+
+        counting.write('a');
+        counting.write(new byte[] {'x', 'b', 'c', 'd', 'x'}, 1, 3);
+        counting.write(new byte[] {'e', 'f'});
+        counting.write(new byte[0], 0, 0);
+
+        assertEquals(6, counting.count());
+        assertEquals("abcdef", target.toString("UTF-8"));
+    }
+}
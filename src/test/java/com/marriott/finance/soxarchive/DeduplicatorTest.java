@@ -0,0 +1,51 @@
+package com.marriott.finance.soxarchive;
+
+import junit.framework.TestCase;
+
+/**
+ * Duplicate detection within the trailing timestamp bucket.
+ */
+public class DeduplicatorTest extends TestCase {
+
+    private static final String T1 = "2024-05-01T10:00:00.001Z";
+    private static final String T2 = "2024-05-01T10:00:00.002Z";
+
+    private static long id(String eventId) {
+        return Fingerprint.of(eventId, null, 0, 0);
+    }
+
+    public void testDropsRepeatWithinTimestamp() {
+        Deduplicator deduplicator = new Deduplicator();
+
+        assertTrue(deduplicator.firstSeen(T1, id("a")));
+        assertTrue(deduplicator.firstSeen(T1, id("b")));
+        assertFalse(deduplicator.firstSeen(T1, id("a")));
+        assertEquals(1, deduplicator.duplicates());
+    }
+
+    public void testForgetsBucketWhenTimestampAdvances() {
+        Deduplicator deduplicator = new Deduplicator();
+
+        assertTrue(deduplicator.firstSeen(T1, id("a")));
+        assertTrue(deduplicator.firstSeen(T2, id("a")));
+        assertFalse(deduplicator.firstSeen(T2, id("a")));
+        // T1 was forgotten when T2 started
+        assertTrue(deduplicator.firstSeen(T1, id("a")));
+        assertEquals(1, deduplicator.duplicates());
+    }
+
+    public void testComparesTimestampByContent() {
+        Deduplicator deduplicator = new Deduplicator();
+
+        assertTrue(deduplicator.firstSeen(new StringBuilder(T1), id("a")));
+        assertFalse(deduplicator.firstSeen(T1, id("a")));
+    }
+
+    public void testRecordsWithoutEventIdAreFingerprintedByContent() {
+        byte[] one = "{\"timestamp\":\"x\",\"v\":1}".getBytes();
+        byte[] two = "{\"timestamp\":\"x\",\"v\":2}".getBytes();
+
+        assertEquals(Fingerprint.of("", one, 0, one.length), Fingerprint.of(null, one.clone(), 0, one.length));
+        assertFalse(Fingerprint.of("", one, 0, one.length) == Fingerprint.of("", two, 0, two.length));
+    }
+}
@@ -0,0 +1,94 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marriott.finance.soxarchive.model.DqlResponse;
+import com.marriott.finance.soxarchive.model.PageCursor;
+import com.marriott.finance.soxarchive.model.RawRecord;
+import com.marriott.finance.soxarchive.model.RecordHandler;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Page cursor of streamed responses, for tree and raw handlers alike.
+ */
+public class DqlResponseReaderTest extends TestCase {
+
+    private static final String RESPONSE = "{\"state\":\"SUCCEEDED\",\"result\":{\"records\":["
+            + "{\"timestamp\":\"2024-05-01T10:00:00.001Z\",\"event.id\":\"a\"},"
+            + "{\"timestamp\":\"2024-05-01T10:00:00.002Z\",\"event.id\":\"b\"},"
+            + "{\"event.id\":\"c\"}"
+            + "]}}";
+
+    private static final PageCursor LAST_WITH_TIMESTAMP =
+            new PageCursor(Instant.parse("2024-05-01T10:00:00.002Z"), "b");
+
+    public void testTreeCursorSkipsRecordWithoutTimestamp() throws Exception {
+        DqlResponse response = read(RESPONSE, new Counting(false));
+
+        assertEquals(3, response.recordCount());
+        assertEquals(LAST_WITH_TIMESTAMP, response.lastCursor());
+    }
+
+    public void testRawCursorSkipsRecordWithoutTimestamp() throws Exception {
+        Counting handler = new Counting(true);
+        DqlResponse response = read(RESPONSE, handler);
+
+        assertEquals(3, handler.records);
+        assertEquals(3, response.recordCount());
+        assertEquals(LAST_WITH_TIMESTAMP, response.lastCursor());
+    }
+
+    public void testRawCursorWithoutAnyTimestamp() throws Exception {
+        DqlResponse response = read("{\"state\":\"SUCCEEDED\",\"result\":{\"records\":[{\"event.id\":\"c\"}]}}",
+                new Counting(true));
+
+        assertEquals(1, response.recordCount());
+        assertNull(response.lastCursor());
+    }
+
+    public void testTruncationNoticeIsReported() throws Exception {
+        DqlResponse truncated = read("{\"state\":\"SUCCEEDED\",\"result\":{\"records\":[],"
+                + "\"metadata\":{\"grail\":{\"query\":\"fetch bizevents\",\"notifications\":["
+                + "{\"notificationType\":\"SCAN_LIMIT\"},{\"notificationType\":\"RESULT_TRUNCATED\"}]}}}}",
+                new Counting(true));
+        DqlResponse complete = read(RESPONSE, new Counting(true));
+
+        assertTrue(truncated.truncated());
+        assertFalse(complete.truncated());
+    }
+
+    private static DqlResponse read(String json, RecordHandler handler) throws Exception {
+        return new DqlResponseReader(new ObjectMapper())
+                .read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), handler);
+    }
+
+    private static final class Counting implements RecordHandler {
+
+        private final boolean raw;
+        private int records;
+
+        Counting(boolean raw) {
+            this.raw = raw;
+        }
+
+        @Override
+        public void onRecord(JsonNode record) {
+            records++;
+        }
+
+        @Override
+        public boolean acceptsRaw() {
+            return raw;
+        }
+
+        @Override
+        public void onRawRecord(RawRecord record) {
+            records++;
+        }
+    }
+}
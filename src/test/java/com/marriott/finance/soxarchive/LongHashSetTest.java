@@ -0,0 +1,53 @@
+package com.marriott.finance.soxarchive;
+
+import junit.framework.TestCase;
+
+/**
+ * Open-addressing fingerprint set.
+ */
+public class LongHashSetTest extends TestCase {
+
+    public void testAddReportsNewValuesOnly() {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.add(-42));
+    }
+
+    public void testZeroIsStoredLikeAnyOtherValue() {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+
+        set.clear();
+        assertTrue(set.add(0));
+    }
+
+    public void testKeepsEveryValueWhileGrowing() {
+        LongHashSet set = new LongHashSet();
+
+        // equal halves hash to the same slot, so every value probes past the others, across rehashes
+        for (long i = 1; i <= 5_000; i++) {
+            assertTrue(set.add(i << 32 | i));
+        }
+        for (long i = 1; i <= 5_000; i++) {
+            assertFalse(set.add(i << 32 | i));
+        }
+        assertTrue(set.add(5_001L << 32 | 5_001L));
+    }
+
+    public void testClearForgetsValues() {
+        LongHashSet set = new LongHashSet();
+        for (long i = 1; i <= 5_000; i++) {
+            set.add(i);
+        }
+
+        set.clear();
+
+        for (long i = 1; i <= 5_000; i++) {
+            assertTrue(set.add(i));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.RawRecord;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Pages buffered ahead of the archive reach it unchanged, in order, and give their memory back.
+ */
+public class PageBufferTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Integration INTEGRATION = new Integration("IC-01", "src", "dst");
+    private static final Instant WINDOW_START = Instant.parse("2024-05-01T10:00:00Z");
+
+    private File tempDir;
+    private final List<ArchivePartWriter.Part> parts = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("page-buffer").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        parts.forEach(ArchivePartWriter.Part::delete);
+        Files.deleteIfExists(tempDir.toPath());
+    }
+
+    public void testTreeAndRawRecordsDrainInOrder() throws Exception {
+        PageBuffer page = new PageBuffer();
+        page.onRecord(MAPPER.readTree(line("2024-05-01T10:00:01Z", "a")));
+        page.onRawRecord(new Raw(line("2024-05-01T10:00:02Z", "b"), "2024-05-01T10:00:02Z", "b"));
+        page.onRecord(MAPPER.readTree(line("2024-05-01T10:00:03Z", "c")));
+        assertEquals(3, page.recordCount());
+
+        List<String> archived = archive(page);
+
+        assertEquals(List.of(
+                line("2024-05-01T10:00:01Z", "a"),
+                line("2024-05-01T10:00:02Z", "b"),
+                line("2024-05-01T10:00:03Z", "c")
+        ), archived);
+        assertEquals(0, page.recordCount());
+        // the timestamps travelled with the bytes
+        assertEquals("2024-05-01T10:00:01Z", parts.get(0).manifest().minTimestamp());
+        assertEquals("2024-05-01T10:00:03Z", parts.get(0).manifest().maxTimestamp());
+    }
+
+    public void testResetForgetsAFailedAttempt() throws Exception {
+        PageBuffer page = new PageBuffer();
+        page.onRecord(MAPPER.readTree(line("2024-05-01T10:00:01Z", "a")));
+        page.onRecord(MAPPER.readTree(line("2024-05-01T10:00:02Z", "b")));
+
+        // the response broke off; the page is fetched again from the start
+        assertTrue(page.reset());
+        page.onRecord(MAPPER.readTree(line("2024-05-01T10:00:01Z", "a")));
+
+        assertEquals(List.of(line("2024-05-01T10:00:01Z", "a")), archive(page));
+    }
+
+    public void testFingerprintsLetTheWriterDropDuplicates() throws Exception {
+        PageBuffer first = new PageBuffer();
+        first.onRecord(MAPPER.readTree(line("2024-05-01T10:00:01Z", "a")));
+        first.onRecord(MAPPER.readTree(line("2024-05-01T10:00:02Z", "b")));
+        PageBuffer second = new PageBuffer();
+        // the next page repeats the boundary record
+        second.onRawRecord(new Raw(line("2024-05-01T10:00:02Z", "b"), "2024-05-01T10:00:02Z", "b"));
+        second.onRecord(MAPPER.readTree(line("2024-05-01T10:00:03Z", "c")));
+
+        List<String> archived = archive(first, second, "DEDUPLICATE", "true");
+
+        assertEquals(List.of(
+                line("2024-05-01T10:00:01Z", "a"),
+                line("2024-05-01T10:00:02Z", "b"),
+                line("2024-05-01T10:00:03Z", "c")
+        ), archived);
+    }
+
+    public void testReservationIsHeldUntilDrained() throws Exception {
+        MemoryBudget budget = new MemoryBudget(0);
+        MemoryBudget.Reservation reservation = budget.reservePage(1000);
+        long estimate = budget.reservedBytes();
+
+        PageBuffer page = new PageBuffer();
+        page.onRecord(MAPPER.readTree(line("2024-05-01T10:00:01Z", "a")));
+        page.hold(reservation);
+        // corrected from the estimate to what the page holds
+        assertTrue(budget.reservedBytes() > 0);
+        assertTrue(budget.reservedBytes() < estimate);
+
+        archive(page);
+        assertEquals(0, budget.reservedBytes());
+    }
+
+    private List<String> archive(PageBuffer page) throws Exception {
+        return archive(page, null);
+    }
+
+    private List<String> archive(PageBuffer first, PageBuffer second, String... config) throws Exception {
+        String[] overrides = new String[config.length + 2];
+        overrides[0] = "TEMP_LOCAL_DIR";
+        overrides[1] = tempDir.getPath();
+        System.arraycopy(config, 0, overrides, 2, config.length);
+
+        try (ArchivePartWriter writer = new ArchivePartWriter(parts::add, null, INTEGRATION, WINDOW_START, "query",
+                TestConfig.of(overrides))) {
+            first.drainTo(writer);
+            if (second != null) {
+                second.drainTo(writer);
+            }
+            writer.finish();
+        }
+
+        assertEquals(1, parts.size());
+        try (InputStream in = Files.newInputStream(parts.get(0).file().toPath());
+             ZipInputStream zip = new ZipInputStream(in)) {
+            zip.getNextEntry();
+            String content = new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+            return List.of(content.split("\n"));
+        }
+    }
+
+    private static String line(String timestamp, String eventId) {
+        return "{\"timestamp\":\"" + timestamp + "\",\"event.id\":\"" + eventId + "\"}";
+    }
+
+    private record Raw(String json, String timestamp, String eventId) implements RawRecord {
+
+        @Override
+        public byte[] buffer() {
+            return json.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int length() {
+            return buffer().length;
+        }
+
+        @Override
+        public CharSequence source() {
+            return "";
+        }
+
+        @Override
+        public CharSequence destination() {
+            return "";
+        }
+    }
+}
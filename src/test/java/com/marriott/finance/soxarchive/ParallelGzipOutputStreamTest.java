@@ -0,0 +1,70 @@
+package com.marriott.finance.soxarchive;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Members written with parallel compression read back with {@link GZIPInputStream}.
+ */
+public class ParallelGzipOutputStreamTest extends TestCase {
+
+    private static final int THREADS = 4;
+
+    private ExecutorService compressors;
+
+    @Override
+    protected void setUp() {
+        compressors = ParallelDeflateOutputStream.newPool(THREADS);
+    }
+
+    @Override
+    protected void tearDown() {
+        compressors.shutdownNow();
+    }
+
+    public void testEmptyMember() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    public void testSingleBlockMember() throws Exception {
+        assertRoundTrip(ParallelZipOutputStreamTest.records(ParallelDeflateOutputStream.BLOCK_BYTES / 3));
+    }
+
+    public void testMultiBlockMember() throws Exception {
+        assertRoundTrip(ParallelZipOutputStreamTest.records(5 * ParallelDeflateOutputStream.BLOCK_BYTES + 12345));
+    }
+
+    public void testWritesInSmallPieces() throws Exception {
+        byte[] data = ParallelZipOutputStreamTest.records(2 * ParallelDeflateOutputStream.BLOCK_BYTES + 7);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (OutputStream gzip = new ParallelGzipOutputStream(archive, 6, compressors, THREADS)) {
+            for (int offset = 0; offset < data.length; offset += 1000) {
+                gzip.write(data, offset, Math.min(1000, data.length - offset));
+            }
+        }
+
+        assertTrue(Arrays.equals(data, gunzip(archive.toByteArray())));
+    }
+
+    private void assertRoundTrip(byte[] data) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (OutputStream gzip = new ParallelGzipOutputStream(archive, 6, compressors, THREADS)) {
+            gzip.write(data);
+        }
+
+        assertTrue(Arrays.equals(data, gunzip(archive.toByteArray())));
+    }
+
+    private static byte[] gunzip(byte[] archive) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(archive))) {
+            return in.readAllBytes();
+        }
+    }
+}
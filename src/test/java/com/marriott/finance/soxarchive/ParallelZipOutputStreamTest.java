@@ -0,0 +1,154 @@
+package com.marriott.finance.soxarchive;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Archives written with parallel compression read back with the JDK's ZIP readers.
+ */
+public class ParallelZipOutputStreamTest extends TestCase {
+
+    private static final int THREADS = 4;
+    private static final String ENTRY = "part-00000.json";
+
+    private ExecutorService compressors;
+
+    @Override
+    protected void setUp() {
+        compressors = ParallelDeflateOutputStream.newPool(THREADS);
+    }
+
+    @Override
+    protected void tearDown() {
+        compressors.shutdownNow();
+    }
+
+    public void testEmptyEntry() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    public void testSingleBlockEntry() throws Exception {
+        assertRoundTrip(records(ParallelDeflateOutputStream.BLOCK_BYTES / 3));
+    }
+
+    public void testMultiBlockEntry() throws Exception {
+        assertRoundTrip(records(5 * ParallelDeflateOutputStream.BLOCK_BYTES + 12345));
+    }
+
+    /**
+     * Over 4 GB the sizes only fit the ZIP64 extra fields; zeros keep the archive itself small.
+     */
+    public void testZip64Entry() throws Exception {
+        long size = (1L << 32) + 3L * ParallelDeflateOutputStream.BLOCK_BYTES + 17;
+        byte[] chunk = new byte[ParallelDeflateOutputStream.BLOCK_BYTES];
+        File file = File.createTempFile("parallel-zip64", ".zip");
+        try {
+            try (OutputStream zip = new ParallelZipOutputStream(new FileOutputStream(file), ENTRY, 1, compressors, THREADS)) {
+                for (long left = size; left > 0; left -= chunk.length) {
+                    zip.write(chunk, 0, (int) Math.min(chunk.length, left));
+                }
+            }
+            long crc = zerosCrc(size, chunk);
+
+            try (ZipFile zipFile = new ZipFile(file)) {
+                ZipEntry entry = zipFile.getEntry(ENTRY);
+                assertEquals(size, entry.getSize());
+                assertEquals(crc, entry.getCrc());
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    assertEquals(size, countZeros(in));
+                }
+            }
+
+            try (ZipInputStream in = new ZipInputStream(Files.newInputStream(file.toPath()))) {
+                ZipEntry entry = in.getNextEntry();
+                assertEquals(ENTRY, entry.getName());
+                assertEquals(size, countZeros(in));
+                assertNull(in.getNextEntry());
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private void assertRoundTrip(byte[] data) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (OutputStream zip = new ParallelZipOutputStream(archive, ENTRY, 6, compressors, THREADS)) {
+            zip.write(data);
+        }
+
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            ZipEntry entry = in.getNextEntry();
+            assertEquals(ENTRY, entry.getName());
+            assertTrue(Arrays.equals(data, in.readAllBytes()));
+            assertNull(in.getNextEntry());
+        }
+
+        File file = File.createTempFile("parallel-zip", ".zip");
+        try {
+            Files.write(file.toPath(), archive.toByteArray());
+            try (ZipFile zipFile = new ZipFile(file)) {
+                assertEquals(1, zipFile.size());
+                ZipEntry entry = zipFile.getEntry(ENTRY);
+                assertEquals(data.length, entry.getSize());
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                assertEquals(crc.getValue(), entry.getCrc());
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    assertTrue(Arrays.equals(data, in.readAllBytes()));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * JSON-like lines, compressible but different from block to block.
+     */
+    static byte[] records(int size) {
+        Random random = new Random(size);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        while (out.size() < size) {
+            out.writeBytes(("{\"event.id\":\"" + Long.toHexString(random.nextLong())
+                    + "\",\"amount\":" + random.nextInt(100000) + "}\n").getBytes());
+        }
+        return Arrays.copyOf(out.toByteArray(), size);
+    }
+
+    private static long zerosCrc(long size, byte[] zeros) {
+        CRC32 crc = new CRC32();
+        for (long left = size; left > 0; left -= zeros.length) {
+            crc.update(zeros, 0, (int) Math.min(zeros.length, left));
+        }
+        return crc.getValue();
+    }
+
+    private static long countZeros(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long count = 0;
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] != 0) {
+                    fail("Non-zero byte at offset " + (count + i));
+                }
+            }
+            count += n;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,78 @@
+package com.marriott.finance.soxarchive;
+
+import junit.framework.TestCase;
+
+/**
+ * Latency tracking and poll pacing of {@link PollingStrategy}.
+ */
+public class PollingStrategyTest extends TestCase {
+
+    private static final String KEY = "int-1:data";
+
+    public void testLatencyIsWeightedAverage() {
+        PollingStrategy strategy = new PollingStrategy(10_000);
+
+        assertFalse(strategy.hasHistory(KEY));
+        assertEquals(1000, strategy.expectedLatencyMillis(KEY));
+
+        strategy.recordLatency(KEY, 2000);
+        assertTrue(strategy.hasHistory(KEY));
+        assertEquals(2000, strategy.expectedLatencyMillis(KEY));
+
+        strategy.recordLatency(KEY, 1000);
+        assertEquals(1700, strategy.expectedLatencyMillis(KEY));
+
+        strategy.recordLatency(KEY, 4000);
+        assertEquals(2390, strategy.expectedLatencyMillis(KEY));
+
+        assertFalse(strategy.hasHistory("int-2:data"));
+    }
+
+    public void testInitialWaitIsBoundedByTimeout() {
+        PollingStrategy strategy = new PollingStrategy(5_000);
+
+        assertEquals(1500, strategy.initialWaitMillis(KEY));
+
+        strategy.recordLatency(KEY, 10);
+        assertEquals(50, strategy.initialWaitMillis(KEY));
+
+        strategy.recordLatency("slow", 60_000);
+        assertEquals(5_000, strategy.initialWaitMillis("slow"));
+    }
+
+    public void testReturnedEarlyBelowHalfTheLongPoll() {
+        PollingStrategy strategy = new PollingStrategy(2_000);
+
+        assertTrue(strategy.returnedEarly(999));
+        assertFalse(strategy.returnedEarly(1000));
+        assertFalse(strategy.returnedEarly(2500));
+    }
+
+    public void testBackoffGrowsAndIsCappedByLatency() {
+        PollingStrategy strategy = new PollingStrategy(10_000);
+        strategy.recordLatency(KEY, 400);
+
+        for (int i = 0; i < 200; i++) {
+            assertEquals(50, strategy.backoffMillis(KEY, 0));
+
+            long second = strategy.backoffMillis(KEY, 1);
+            assertTrue(second >= 50 && second <= 100);
+
+            // 50 << 10 is far past the 400 ms the query usually takes
+            long late = strategy.backoffMillis(KEY, 10);
+            assertTrue(late >= 50 && late <= 400);
+
+            long huge = strategy.backoffMillis(KEY, Integer.MAX_VALUE);
+            assertTrue(huge >= 50 && huge <= 400);
+        }
+    }
+
+    public void testBackoffNeverBelowMinimumWait() {
+        PollingStrategy strategy = new PollingStrategy(10_000);
+        strategy.recordLatency(KEY, 5);
+
+        for (int attempt = 0; attempt < 20; attempt++) {
+            assertEquals(50, strategy.backoffMillis(KEY, attempt));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.marriott.finance.soxarchive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marriott.finance.soxarchive.model.BizeventsResponse;
+import com.marriott.finance.soxarchive.model.Integration;
+import com.marriott.finance.soxarchive.model.PageCursor;
+
+import junit.framework.TestCase;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Slice order at the sink and release of every page when a window is abandoned.
+ */
+public class SliceFetcherTest extends TestCase {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Integration INTEGRATION = new Integration("IC-01", "src", "dst");
+    private static final Instant START = Instant.parse("2024-05-01T00:00:00Z");
+    private static final Instant END = START.plus(Duration.ofHours(1));
+    private static final int SLICES = 4;
+    private static final int PAGE_SIZE = 3;
+
+    private final MemoryBudget budget = new MemoryBudget(0);
+    /** label "slice/page" of every page a query filled */
+    private final Map<PageBuffer, String> labels = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final AtomicInteger queries = new AtomicInteger();
+
+    public void testSinkReceivesSlicesInOrder() throws Exception {
+        List<String> received = new ArrayList<>();
+
+        SliceFetcher.fetchSlices(source(3, -1), budget, INTEGRATION, START, END, SLICES, PAGE_SIZE, page -> {
+            received.add(labels.get(page));
+            page.reset();
+            return new PageBuffer();
+        });
+
+        List<String> expected = new ArrayList<>();
+        for (int slice = 0; slice < SLICES; slice++) {
+            for (int page = 0; page < 3; page++) {
+                expected.add(slice + "/" + page);
+            }
+        }
+        assertEquals(expected, received);
+        assertEquals(0, budget.reservedBytes());
+    }
+
+    public void testAbandonedWindowReleasesEveryPage() throws Exception {
+        List<String> received = new ArrayList<>();
+
+        try {
+            SliceFetcher.fetchSlices(source(50, -1), budget, INTEGRATION, START, END, SLICES, PAGE_SIZE, page -> {
+                received.add(labels.get(page));
+                page.reset();
+                if (received.size() == 2) {
+                    throw new IllegalStateException("archive failed");
+                }
+                return new PageBuffer();
+            });
+            fail("expected the sink failure");
+        } catch (IllegalStateException expected) {
+            assertEquals("archive failed", expected.getMessage());
+        }
+
+        assertEquals(List.of("0/0", "0/1"), received);
+        // later slices had filled their queues and were still fetching
+        assertTrue(queries.get() > 2);
+        assertEquals(0, budget.reservedBytes());
+    }
+
+    public void testFailedSliceAbandonsTheWindow() throws Exception {
+        try {
+            SliceFetcher.fetchSlices(source(50, 2), budget, INTEGRATION, START, END, SLICES, PAGE_SIZE, page -> {
+                page.reset();
+                return new PageBuffer();
+            });
+            fail("expected the slice failure");
+        } catch (IllegalStateException expected) {
+            assertEquals("slice 2 failed", expected.getMessage());
+        }
+
+        assertEquals(0, budget.reservedBytes());
+    }
+
+    /**
+     * Each slice has {@code pages} full pages and then ends; queries take a few random
+     * milliseconds, so slices finish out of order.
+     *
+     * @param failingSlice slice whose second query fails, or -1
+     */
+    private SliceFetcher.PageSource source(int pages, int failingSlice) {
+        Duration sliceLength = Duration.between(START, END).dividedBy(SLICES);
+        return (from, to, after, limit, page) -> {
+            queries.incrementAndGet();
+            Thread.sleep(ThreadLocalRandom.current().nextInt(1, 5));
+            int slice = (int) Duration.between(START, from).dividedBy(sliceLength);
+            int pageNumber = after == null ? 0 : Integer.parseInt(after.eventId().split("/")[1]) + 1;
+            if (slice == failingSlice && pageNumber == 1) {
+                throw new IllegalStateException("slice " + slice + " failed");
+            }
+            if (pageNumber == pages) {
+                return new BizeventsResponse(0, null, false);
+            }
+
+            String eventId = null;
+            Instant timestamp = null;
+            for (int i = 0; i < limit; i++) {
+                timestamp = from.plusMillis(pageNumber * limit + i);
+                eventId = slice + "/" + pageNumber + "/" + i;
+                page.onRecord(MAPPER.readTree("{\"timestamp\":\"" + timestamp + "\",\"event.id\":\"" + eventId + "\"}"));
+            }
+            labels.put(page, slice + "/" + pageNumber);
+            return new BizeventsResponse(limit, new PageCursor(timestamp, eventId), false);
+        };
+    }
+}
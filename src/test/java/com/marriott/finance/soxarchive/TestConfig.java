@@ -0,0 +1,37 @@
+package com.marriott.finance.soxarchive;
+
+import com.marriott.finance.soxarchive.config.AppConfig;
+import com.marriott.finance.soxarchive.config.EnvConfigLoader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configurations for tests: the required variables filled in, plus the given overrides.
+ */
+public final class TestConfig {
+
+    private TestConfig() {
+        // utility class
+    }
+
+    /**
+     * @param overrides alternating variable names and values, e.g. {@code "STAGED_PIPELINE", "true"}
+     */
+    public static AppConfig of(String... overrides) {
+        Map<String, String> env = new HashMap<>();
+        env.put("TENANT_NAME", "test");
+        env.put("OAUTH_TOKEN_URL", "http://localhost/token");
+        env.put("OAUTH_CLIENT_ID", "client");
+        env.put("OAUTH_CLIENT_SECRET", "secret");
+        env.put("OAUTH_SCOPE", "storage:bizevents:read");
+        env.put("OAUTH_RESOURCE_URN", "urn:test");
+        env.put("S3_DATA_BUCKET", "data");
+        env.put("S3_CHECKPOINT_BUCKET", "checkpoints");
+        env.put("TEMP_LOCAL_DIR", System.getProperty("java.io.tmpdir"));
+        for (int i = 0; i < overrides.length; i += 2) {
+            env.put(overrides[i], overrides[i + 1]);
+        }
+        return EnvConfigLoader.load(env);
+    }
+}
@@ -0,0 +1,135 @@
+package com.marriott.finance.soxarchive.auth;
+
+import com.marriott.finance.soxarchive.TestConfig;
+import com.marriott.finance.soxarchive.http.DynatraceTransport;
+
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Token requests against a local token endpoint: shared refreshes and invalidation.
+ */
+public class DynatraceOAuthClientTest extends TestCase {
+
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+    private volatile int status = 200;
+
+    private HttpServer server;
+    private DynatraceTransport transport;
+    private DynatraceOAuthClient client;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/token", exchange -> {
+            int n = tokenRequests.incrementAndGet();
+            try {
+                // long enough for every waiting caller to pile up on the same request
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = (status == 200
+                    ? "{\"access_token\":\"t" + n + "\",\"expires_in\":3600}"
+                    : "{\"error\":\"invalid_client\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        transport = new DynatraceTransport(TestConfig.of());
+        client = new DynatraceOAuthClient(
+                transport,
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/token",
+                "client", "secret", "storage:bizevents:read", "urn:test");
+    }
+
+    @Override
+    protected void tearDown() {
+        client.close();
+        transport.close();
+        server.stop(0);
+    }
+
+    public void testConcurrentCallersShareOneTokenRequest() throws Exception {
+        List<String> tokens = concurrently(8, client::getAccessToken);
+
+        assertEquals(1, tokenRequests.get());
+        for (String token : tokens) {
+            assertEquals("t1", token);
+        }
+
+        // a usable token is handed out without another request
+        assertEquals("t1", client.getAccessToken());
+        assertEquals(1, tokenRequests.get());
+    }
+
+    public void testInvalidatedTokenIsReplacedOnce() throws Exception {
+        assertEquals("t1", client.getAccessToken());
+
+        concurrently(4, () -> {
+            client.invalidate("t1");
+            return null;
+        });
+        assertEquals("t2", client.getAccessToken());
+        assertEquals(2, tokenRequests.get());
+
+        // a 401 for a token that was replaced already does not fetch another
+        client.invalidate("t1");
+        assertEquals("t2", client.getAccessToken());
+        assertEquals(2, tokenRequests.get());
+    }
+
+    public void testFailedRequestIsSurfacedToEveryCaller() throws Exception {
+        status = 401;
+
+        try {
+            client.getAccessToken();
+            fail("expected the token request to fail");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getMessage().contains("Status=401"));
+        }
+
+        // the failed request is not cached: the next caller asks again
+        status = 200;
+        assertEquals("t2", client.getAccessToken());
+    }
+
+    private static <T> List<T> concurrently(int callers, Callable<T> call) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return call.call();
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
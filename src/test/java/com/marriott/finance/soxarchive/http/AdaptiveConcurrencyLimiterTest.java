@@ -0,0 +1,99 @@
+package com.marriott.finance.soxarchive.http;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive increase, cooled-down decreases and the Retry-After pause.
+ */
+public class AdaptiveConcurrencyLimiterTest extends TestCase {
+
+    /** a little over the limiter's one second decrease cooldown */
+    private static final long COOLDOWN_MILLIS = 1100;
+
+    public void testSuccessesRaiseTheLimitUpToTheMaximum() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 6);
+
+        // +1/limit per success: about one more query per round of completions
+        for (int i = 0; i < 4; i++) {
+            limiter.onSuccess(100, 100);
+        }
+        assertEquals(4, limiter.limit());
+        limiter.onSuccess(100, 100);
+        assertEquals(5, limiter.limit());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess(100, -1);
+        }
+        assertEquals(6, limiter.limit());
+    }
+
+    public void testOverloadHalvesTheLimitOncePerCooldown() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16, 32);
+
+        limiter.onOverload(0);
+        assertEquals(8, limiter.limit());
+
+        // the rest of the same burst of rejections
+        limiter.onOverload(0);
+        limiter.onOverload(0);
+        assertEquals(8, limiter.limit());
+
+        Thread.sleep(COOLDOWN_MILLIS);
+        limiter.onOverload(0);
+        assertEquals(4, limiter.limit());
+    }
+
+    public void testLatencySpikeLowersTheLimitInsteadOfRaisingIt() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 32);
+
+        limiter.onSuccess(250, 100);
+        assertEquals(8, limiter.limit());
+
+        // within the cooldown a spike neither lowers nor raises the limit
+        limiter.onSuccess(250, 100);
+        assertEquals(8, limiter.limit());
+    }
+
+    public void testLimitNeverDropsBelowOne() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 4);
+
+        limiter.onOverload(0);
+        assertEquals(1, limiter.limit());
+    }
+
+    public void testOverloadPausesNewQueriesForRetryAfter() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 4);
+
+        long start = System.nanoTime();
+        limiter.onOverload(300);
+        limiter.acquire().release();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 290);
+    }
+
+    public void testAcquireWaitsForAFreePermit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire();
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread second = new Thread(() -> {
+            try {
+                limiter.acquire().release();
+                admitted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        second.start();
+
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+        first.release();
+        // a second release of the same permit must not free another slot
+        first.release();
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        second.join();
+    }
+}
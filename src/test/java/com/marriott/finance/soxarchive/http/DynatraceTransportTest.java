@@ -0,0 +1,227 @@
+package com.marriott.finance.soxarchive.http;
+
+import com.marriott.finance.soxarchive.TestConfig;
+
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+
+/**
+ * The shared transport against a local server: per-host request limit and counters,
+ * and decoding of compressed response bodies.
+ */
+public class DynatraceTransportTest extends TestCase {
+
+    private HttpServer server;
+    private final AtomicInteger serving = new AtomicInteger();
+    private final AtomicInteger peakServing = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            peakServing.accumulateAndGet(serving.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+                byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                serving.decrementAndGet();
+            }
+        });
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() {
+        server.stop(0);
+    }
+
+    public void testRequestsPerHostAreBounded() throws Exception {
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/query");
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+
+        try (DynatraceTransport transport = new DynatraceTransport(TestConfig.of("HTTP_MAX_REQUESTS_PER_HOST", "2"))) {
+            List<Future<String>> bodies = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                bodies.add(callers.submit(() -> transport.send(
+                        HttpRequest.newBuilder(uri).GET().build(),
+                        HttpResponse.BodyHandlers.ofString()).body()));
+            }
+            for (Future<String> body : bodies) {
+                assertEquals("ok", body.get());
+            }
+
+            assertEquals(6, transport.requests());
+            assertTrue("peak " + peakServing.get(), peakServing.get() <= 2);
+            // plain HTTP opens no TLS connections
+            assertEquals(0, transport.connectionsOpened());
+            assertEquals(1.0, transport.connectionReuseRatio(), 0.0);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    public void testNoRequestsMeansNoReuse() throws Exception {
+        try (DynatraceTransport transport = new DynatraceTransport(TestConfig.of())) {
+            assertEquals(0.0, transport.connectionReuseRatio(), 0.0);
+        }
+    }
+
+    public void testEveryEngineIsCountedAsAConnection() throws Exception {
+        AtomicLong opened = new AtomicLong();
+        SSLContext context = CountingSSLContext.create(opened);
+
+        context.createSSLEngine();
+        context.createSSLEngine("tenant.apps.dynatrace.com", 443);
+
+        assertEquals(2, opened.get());
+        assertEquals(SSLContext.getDefault().getProtocol(), context.getProtocol());
+    }
+
+    public void testGzipBodyIsInflatedAndCounted() throws Exception {
+        byte[] body = body();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(body);
+        }
+
+        assertDecoded(" GZIP ", gzip.toByteArray(), body);
+    }
+
+    public void testZlibDeflateBodyIsInflated() throws Exception {
+        byte[] body = body();
+        assertDecoded("deflate", deflate(body, false), body);
+    }
+
+    public void testRawDeflateBodyIsInflated() throws Exception {
+        byte[] body = body();
+        assertDecoded("deflate", deflate(body, true), body);
+    }
+
+    public void testUnencodedBodyIsPassedThrough() throws Exception {
+        byte[] body = body();
+        assertDecoded(null, body, body);
+        assertDecoded("identity", body, body);
+    }
+
+    public void testUnknownEncodingIsRejected() throws Exception {
+        try (DynatraceTransport transport = new DynatraceTransport(TestConfig.of())) {
+            transport.decodedBody(response("br", new byte[] {1, 2, 3}));
+            fail("expected an unsupported encoding to be rejected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("br"));
+        }
+    }
+
+    private static void assertDecoded(String encoding, byte[] wire, byte[] expected) throws Exception {
+        try (DynatraceTransport transport = new DynatraceTransport(TestConfig.of())) {
+            byte[] decoded;
+            try (InputStream in = transport.decodedBody(response(encoding, wire))) {
+                decoded = in.readAllBytes();
+            }
+
+            assertTrue(Arrays.equals(expected, decoded));
+            assertEquals(wire.length, transport.bodyBytesReceived());
+            assertEquals(expected.length, transport.bodyBytesDecoded());
+        }
+    }
+
+    private static byte[] body() {
+        StringBuilder json = new StringBuilder("{\"records\":[");
+        for (int i = 0; i < 2000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"event.id\":\"e").append(i).append("\",\"status\":\"OK\"}");
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] deflate(byte[] body, boolean raw) throws IOException {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(deflated, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))) {
+            out.write(body);
+        }
+        return deflated.toByteArray();
+    }
+
+    private static HttpResponse<InputStream> response(String encoding, byte[] wire) {
+        HttpHeaders headers = HttpHeaders.of(
+                encoding == null ? Map.of() : Map.of("Content-Encoding", List.of(encoding)),
+                (name, value) -> true);
+        return new HttpResponse<>() {
+            @Override
+            public int statusCode() {
+                return 200;
+            }
+
+            @Override
+            public HttpRequest request() {
+                return HttpRequest.newBuilder(URI.create("https://tenant.apps.dynatrace.com/")).build();
+            }
+
+            @Override
+            public Optional<HttpResponse<InputStream>> previousResponse() {
+                return Optional.empty();
+            }
+
+            @Override
+            public HttpHeaders headers() {
+                return headers;
+            }
+
+            @Override
+            public InputStream body() {
+                return new ByteArrayInputStream(wire);
+            }
+
+            @Override
+            public Optional<SSLSession> sslSession() {
+                return Optional.empty();
+            }
+
+            @Override
+            public URI uri() {
+                return request().uri();
+            }
+
+            @Override
+            public HttpClient.Version version() {
+                return HttpClient.Version.HTTP_2;
+            }
+        };
+    }
+}
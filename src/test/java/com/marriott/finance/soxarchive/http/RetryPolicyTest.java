@@ -0,0 +1,100 @@
+package com.marriott.finance.soxarchive.http;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Failure classification, per-call retry budgets and backoff bounds.
+ */
+public class RetryPolicyTest extends TestCase {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+
+    public void testStatusCodesAreClassified() {
+        assertEquals(RetryPolicy.Failure.OVERLOADED, policy.classify(api("execute", 429)));
+        assertEquals(RetryPolicy.Failure.OVERLOADED, policy.classify(api("poll", 503)));
+        assertEquals(RetryPolicy.Failure.UNAUTHORIZED, policy.classify(api("execute", 401)));
+        assertEquals(RetryPolicy.Failure.TOKEN_EXPIRED, policy.classify(api("poll", 404)));
+        assertEquals(RetryPolicy.Failure.TOKEN_EXPIRED, policy.classify(api("poll", 410)));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, policy.classify(api("execute", 500)));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, policy.classify(api("execute", 408)));
+
+        // a missing token only means something on poll
+        assertEquals(RetryPolicy.Failure.FATAL, policy.classify(api("execute", 404)));
+        assertEquals(RetryPolicy.Failure.FATAL, policy.classify(api("execute", 400)));
+        assertEquals(RetryPolicy.Failure.FATAL, policy.classify(api("poll", 403)));
+    }
+
+    public void testNetworkErrorsAreTransientThroughWrappers() {
+        assertEquals(RetryPolicy.Failure.TRANSIENT, policy.classify(new IOException("reset")));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, policy.classify(new HttpTimeoutException("timed out")));
+        assertEquals(RetryPolicy.Failure.TRANSIENT,
+                policy.classify(new CompletionException(new ExecutionException(new IOException("reset")))));
+        assertEquals(RetryPolicy.Failure.OVERLOADED,
+                policy.classify(new ExecutionException(api("poll", 429))));
+        assertEquals(RetryPolicy.Failure.FATAL, policy.classify(new IllegalStateException("bug")));
+    }
+
+    public void testBudgetIsSharedByNonOverloadRetries() {
+        RetryPolicy.Budget budget = policy.newBudget();
+
+        assertTrue(budget.tryRetry(RetryPolicy.Failure.TRANSIENT));
+        assertTrue(budget.tryRetry(RetryPolicy.Failure.TOKEN_EXPIRED));
+        assertTrue(budget.tryRetry(RetryPolicy.Failure.UNAUTHORIZED));
+        assertEquals(3, budget.attempts());
+
+        assertFalse(budget.tryRetry(RetryPolicy.Failure.TRANSIENT));
+        // once spent, not even an overload is retried
+        assertFalse(budget.tryRetry(RetryPolicy.Failure.OVERLOADED));
+
+        assertTrue(policy.newBudget().tryRetry(RetryPolicy.Failure.TRANSIENT));
+    }
+
+    public void testOverloadHasItsOwnAllowance() {
+        RetryPolicy.Budget budget = policy.newBudget();
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(budget.tryRetry(RetryPolicy.Failure.OVERLOADED));
+        }
+        assertEquals(0, budget.attempts());
+        assertFalse(budget.tryRetry(RetryPolicy.Failure.OVERLOADED));
+        assertFalse(budget.tryRetry(RetryPolicy.Failure.TRANSIENT));
+    }
+
+    public void testFatalIsNeverRetried() {
+        RetryPolicy.Budget budget = policy.newBudget();
+
+        assertFalse(budget.tryRetry(RetryPolicy.Failure.FATAL));
+        assertEquals(0, budget.attempts());
+        assertTrue(budget.tryRetry(RetryPolicy.Failure.TRANSIENT));
+    }
+
+    public void testNoRetriesConfigured() {
+        assertFalse(new RetryPolicy(0, 100, 1000).newBudget().tryRetry(RetryPolicy.Failure.TRANSIENT));
+    }
+
+    public void testBackoffIsJitteredUpToACappedExponential() {
+        long maxFirst = 0;
+        for (int i = 0; i < 500; i++) {
+            long first = policy.backoffMillis(1);
+            assertTrue(first >= 0 && first <= 100);
+            maxFirst = Math.max(maxFirst, first);
+
+            long third = policy.backoffMillis(3);
+            assertTrue(third >= 0 && third <= 400);
+
+            long late = policy.backoffMillis(60);
+            assertTrue(late >= 0 && late <= 1000);
+        }
+        // full jitter spreads the waits instead of always using the ceiling
+        assertTrue(maxFirst > 0);
+    }
+
+    private static DynatraceApiException api(String operation, int statusCode) {
+        return new DynatraceApiException(operation, statusCode, -1, "");
+    }
+}
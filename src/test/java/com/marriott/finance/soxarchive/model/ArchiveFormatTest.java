@@ -0,0 +1,36 @@
+package com.marriott.finance.soxarchive.model;
+
+import junit.framework.TestCase;
+
+/**
+ * Compression levels accepted per codec.
+ */
+public class ArchiveFormatTest extends TestCase {
+
+    public void testDeflateLevels() {
+        for (ArchiveFormat format : new ArchiveFormat[] {ArchiveFormat.ZIP, ArchiveFormat.GZIP}) {
+            format.checkLevel(ArchiveFormat.DEFAULT_LEVEL);
+            format.checkLevel(0);
+            format.checkLevel(9);
+            assertRejected(format, 10);
+            assertRejected(format, 19);
+            assertRejected(format, -2);
+        }
+    }
+
+    public void testZstdLevels() {
+        ArchiveFormat.ZSTD.checkLevel(ArchiveFormat.DEFAULT_LEVEL);
+        ArchiveFormat.ZSTD.checkLevel(19);
+        ArchiveFormat.ZSTD.checkLevel(22);
+        assertRejected(ArchiveFormat.ZSTD, 23);
+    }
+
+    private static void assertRejected(ArchiveFormat format, int level) {
+        try {
+            format.checkLevel(level);
+            fail("expected level " + level + " to be rejected for " + format);
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains(String.valueOf(level)));
+        }
+    }
+}
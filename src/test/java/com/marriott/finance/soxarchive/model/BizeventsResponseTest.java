@@ -0,0 +1,42 @@
+package com.marriott.finance.soxarchive.model;
+
+import junit.framework.TestCase;
+
+import java.time.Instant;
+
+/**
+ * When paging stops without a count query.
+ */
+public class BizeventsResponseTest extends TestCase {
+
+    private static final int PAGE_SIZE = 1000;
+    private static final PageCursor CURSOR = new PageCursor(Instant.parse("2024-05-01T10:00:00Z"), "e1");
+
+    public void testShortPageIsTheLast() {
+        assertTrue(new BizeventsResponse(999, CURSOR, false).isLastPage(PAGE_SIZE));
+        assertTrue(new BizeventsResponse(0, null, false).isLastPage(PAGE_SIZE));
+    }
+
+    public void testFullPageIsFollowedByAnother() {
+        assertFalse(new BizeventsResponse(PAGE_SIZE, CURSOR, false).isLastPage(PAGE_SIZE));
+    }
+
+    public void testTruncatedShortPageIsFollowedByAnother() {
+        // a server-side result limit cut the page, so records may be left
+        assertFalse(new BizeventsResponse(10, CURSOR, true).isLastPage(PAGE_SIZE));
+    }
+
+    public void testFullPageWithoutCursorFails() {
+        assertNoCursorRejected(new BizeventsResponse(PAGE_SIZE, null, false));
+        assertNoCursorRejected(new BizeventsResponse(10, null, true));
+    }
+
+    private static void assertNoCursorRejected(BizeventsResponse response) {
+        try {
+            response.isLastPage(PAGE_SIZE);
+            fail("expected a page without cursor to be rejected");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("no record with a timestamp"));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.marriott.finance.soxarchive.s3;
+
+import junit.framework.TestCase;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Part uploads, completion and abort against a stubbed S3 client.
+ */
+public class MultipartUploadStreamTest extends TestCase {
+
+    private static final int PART_SIZE = 1024;
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testUploadsFullBuffersAndCompletesInPartOrder() throws Exception {
+        StubS3 s3 = new StubS3(0);
+        byte[] data = bytes(2 * PART_SIZE + 100);
+
+        MultipartUploadStream stream = open(s3);
+        stream.write(data, 0, 1000);
+        stream.write(data[1000]);
+        stream.write(data, 1001, data.length - 1001);
+        stream.close();
+
+        assertEquals(data.length, stream.bytesWritten());
+        assertEquals(3, s3.parts.size());
+        assertEquals(PART_SIZE, s3.parts.get(1).length);
+        assertEquals(100, s3.parts.get(3).length);
+        assertTrue(Arrays.equals(data, s3.object()));
+
+        assertNotNull(s3.completed);
+        List<CompletedPart> completed = s3.completed.multipartUpload().parts();
+        assertEquals(3, completed.size());
+        for (int i = 0; i < completed.size(); i++) {
+            assertEquals(Integer.valueOf(i + 1), completed.get(i).partNumber());
+            assertEquals("etag-" + (i + 1), completed.get(i).eTag());
+        }
+        assertEquals("upload-1", s3.completed.uploadId());
+        assertFalse(s3.aborted);
+    }
+
+    public void testEmptyObjectIsOneEmptyPart() throws Exception {
+        StubS3 s3 = new StubS3(0);
+
+        open(s3).close();
+
+        assertEquals(1, s3.parts.size());
+        assertEquals(0, s3.parts.get(1).length);
+        assertNotNull(s3.completed);
+    }
+
+    public void testFailedPartAbortsTheUpload() throws Exception {
+        StubS3 s3 = new StubS3(2);
+        MultipartUploadStream stream = open(s3);
+
+        try {
+            stream.write(bytes(3 * PART_SIZE));
+            stream.close();
+            fail("expected the failed part to surface");
+        } catch (IOException expected) {
+            // from write once the failure is seen, or from close
+        }
+        stream.abort();
+
+        assertTrue(s3.aborted);
+        assertNull(s3.completed);
+        try {
+            stream.write(1);
+            fail("expected a closed stream");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testAbortDiscardsTheObject() throws Exception {
+        StubS3 s3 = new StubS3(0);
+        MultipartUploadStream stream = open(s3);
+        stream.write(bytes(PART_SIZE / 2));
+
+        stream.abort();
+        stream.close();
+
+        assertTrue(s3.aborted);
+        assertNull(s3.completed);
+    }
+
+    private MultipartUploadStream open(S3Client s3) {
+        return new MultipartUploadStream(s3, executor, "bucket", "bizevents/part.zip", "application/zip", PART_SIZE);
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + i / 7);
+        }
+        return data;
+    }
+
+    /**
+     * Keeps uploaded parts in memory; the part numbered {@code failingPart} is rejected.
+     */
+    private static final class StubS3 implements S3Client {
+
+        private final int failingPart;
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+        private volatile CompleteMultipartUploadRequest completed;
+        private volatile boolean aborted;
+
+        StubS3(int failingPart) {
+            this.failingPart = failingPart;
+        }
+
+        byte[] object() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            List<Integer> numbers = new ArrayList<>(parts.keySet());
+            numbers.sort(null);
+            numbers.forEach(number -> out.writeBytes(parts.get(number)));
+            return out.toByteArray();
+        }
+
+        @Override
+        public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+            return CreateMultipartUploadResponse.builder().uploadId("upload-1").build();
+        }
+
+        @Override
+        public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+            if (request.partNumber() == failingPart) {
+                throw new IllegalStateException("part " + failingPart + " rejected");
+            }
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                parts.put(request.partNumber(), in.readAllBytes());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build();
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            completed = request;
+            return CompleteMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+            aborted = true;
+            return AbortMultipartUploadResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}